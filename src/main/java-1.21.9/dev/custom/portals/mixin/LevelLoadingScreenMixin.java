@@ -1,9 +1,8 @@
 package dev.custom.portals.mixin;
 
-import dev.custom.portals.blocks.PortalBlock;
 import dev.custom.portals.util.ClientUtil;
-import dev.custom.portals.util.ScreenTransitionPayload;
-import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
+import dev.custom.portals.util.PortalSpriteCache;
+import dev.custom.portals.util.PortalTransitionPayload;
 import net.minecraft.client.gl.RenderPipelines;
 import net.minecraft.client.gui.DrawContext;
 import net.minecraft.client.gui.screen.Screen;
@@ -27,13 +26,13 @@ public abstract class LevelLoadingScreenMixin extends Screen {
 
     @Inject(method = "renderBackground", at = @At("HEAD"), cancellable = true)
     public void customPortals$renderBackground(DrawContext drawContext, int i, int j, float f, CallbackInfo ci) {
-        if (ClientUtil.transitionBackgroundSpriteModel != null) {
+        if (ClientUtil.transitionColor != 0) {
             ClientUtil.isTransitioning = true;
             if (!customPortalsPacketSent) {
-                ClientPlayNetworking.send(new ScreenTransitionPayload(true));
+                ClientUtil.sendTransitionAck(PortalTransitionPayload.State.SCREEN_OPENED);
                 customPortalsPacketSent = true;
             }
-            drawContext.drawSpriteStretched(RenderPipelines.GUI_OPAQUE_TEX_BG, this.client.getBlockRenderManager().getModels().getModelParticleSprite(ClientUtil.transitionBackgroundSpriteModel.getDefaultState().with(PortalBlock.LIT, true)), 0, 0, drawContext.getScaledWindowWidth(), drawContext.getScaledWindowHeight());
+            drawContext.drawSpriteStretched(RenderPipelines.GUI_OPAQUE_TEX_BG, PortalSpriteCache.get(ClientUtil.transitionColor), 0, 0, drawContext.getScaledWindowWidth(), drawContext.getScaledWindowHeight());
             ci.cancel();
         }
     }
@@ -41,8 +40,8 @@ public abstract class LevelLoadingScreenMixin extends Screen {
     @Inject(method = "close", at = @At("HEAD"))
     public void customPortals$close(CallbackInfo ci) {
         ClientUtil.isTransitioning = false;
-        ClientPlayNetworking.send(new ScreenTransitionPayload(false));
-        ClientUtil.transitionBackgroundSpriteModel = null;
+        ClientUtil.sendTransitionAck(PortalTransitionPayload.State.SCREEN_CLOSED);
+        ClientUtil.transitionColor = 0;
         customPortalsPacketSent = false;
     }
 }
@@ -2,6 +2,7 @@ package dev.custom.portals.mixin;
 
 import com.mojang.authlib.GameProfile;
 import dev.custom.portals.util.EntityMixinAccess;
+import dev.custom.portals.util.PortalHelper;
 import dev.custom.portals.mixin.TeleportTargetAccessor;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityPosition;
@@ -64,6 +65,11 @@ public abstract class ServerPlayerEntityMixin21_9 extends PlayerEntity {
         ServerWorld serverWorld2 = this.getWorld();
         if (((EntityMixinAccess)this).isInCustomPortal()) {
             ServerPlayerEntity thisPlayer = (ServerPlayerEntity)(Object)this;
+            // The client already has the destination loaded, so vanilla's in-place teleport is enough
+            if (PortalHelper.canTeleportSeamlessly(thisPlayer, serverWorld, teleportTarget.position())) {
+                ((EntityMixinAccess)this).sendTransitionFlash();
+                return;
+            }
             this.inTeleportationState = true;
             WorldProperties worldProperties = serverWorld.getLevelProperties();
             this.networkHandler.sendPacket(new PlayerRespawnS2CPacket(this.createCommonPlayerSpawnInfo(serverWorld), (byte)3));
@@ -1,15 +1,29 @@
 package dev.custom.portals;
 
+import dev.custom.portals.command.PortalsCommand;
 import dev.custom.portals.config.CPSettings;
 import dev.custom.portals.data.BasePortalComponent;
+import dev.custom.portals.data.LinkSolver;
 import dev.custom.portals.data.WorldPortals;
 import dev.custom.portals.registry.CPBlocks;
 import dev.custom.portals.registry.CPItems;
 import dev.custom.portals.registry.CPParticlesConstants;
-import dev.custom.portals.util.DrawSpritePayload;
 import dev.custom.portals.util.EntityMixinAccess;
-import dev.custom.portals.util.ScreenTransitionPayload;
+import dev.custom.portals.util.ItemStream;
+import dev.custom.portals.util.PortalInterest;
+import dev.custom.portals.util.PortalJournal;
+import dev.custom.portals.util.PortalResyncPayload;
+import dev.custom.portals.util.PortalSweeper;
+import dev.custom.portals.util.PortalSyncPayload;
+import dev.custom.portals.util.PortalTasks;
+import dev.custom.portals.util.PortalTransitionPayload;
+import dev.custom.portals.util.TeleportScheduler;
+import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerChunkEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
 import net.fabricmc.fabric.api.networking.v1.PayloadTypeRegistry;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
 import org.ladysnake.cca.api.v3.world.WorldComponentFactoryRegistry;
 import org.ladysnake.cca.api.v3.world.WorldComponentInitializer;
@@ -26,10 +40,13 @@ import net.minecraft.registry.RegistryKeys;
 import net.minecraft.text.Text;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.math.BlockPos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class CustomPortals implements ModInitializer, WorldComponentInitializer {
 
         public static final String MOD_ID = "customportals";
+        public static final Logger LOGGER = LoggerFactory.getLogger(MOD_ID);
 
         public static final ComponentKey<BasePortalComponent> PORTALS = ComponentRegistryV3.INSTANCE
                 .getOrCreate(Identifier.of("customportals:portals"), BasePortalComponent.class);
@@ -43,16 +60,51 @@ public class CustomPortals implements ModInitializer, WorldComponentInitializer
                         -> new ItemStack(CPItems.PURPLE_PORTAL_CATALYST))
                         .displayName(Text.translatable("itemGroup.customportals.general")).build());
                 CPSettings.load();
+                CPSettings.addSaveListener(LinkSolver::onConfigSaved);
                 CPBlocks.registerBlocks();
                 CPItems.registerItems();
                 CPParticlesConstants.registerParticles();
-                PayloadTypeRegistry.playS2C().register(DrawSpritePayload.ID, DrawSpritePayload.CODEC);
-                PayloadTypeRegistry.playC2S().register(ScreenTransitionPayload.ID, ScreenTransitionPayload.CODEC);
-                ServerPlayNetworking.registerGlobalReceiver(ScreenTransitionPayload.ID, (payload, context) -> {
+                PayloadTypeRegistry.playS2C().register(PortalTransitionPayload.ID, PortalTransitionPayload.CODEC);
+                PayloadTypeRegistry.playC2S().register(PortalTransitionPayload.ID, PortalTransitionPayload.CODEC);
+                ServerPlayNetworking.registerGlobalReceiver(PortalTransitionPayload.ID, (payload, context) -> {
+                        if (!payload.isSupported())
+                                return;
                         context.server().execute(() -> {
-                                ((EntityMixinAccess)context.player()).setInTransition(payload.isTransitioning());
+                                ((EntityMixinAccess)context.player()).onTransitionAck(payload.state(), payload.sequence());
                         });
                 });
+                PayloadTypeRegistry.playS2C().register(PortalSyncPayload.ID, PortalSyncPayload.CODEC);
+                PayloadTypeRegistry.playC2S().register(PortalResyncPayload.ID, PortalResyncPayload.CODEC);
+                ServerPlayNetworking.registerGlobalReceiver(PortalResyncPayload.ID, (payload, context) -> {
+                        context.server().execute(() -> {
+                                ServerPlayNetworking.send(context.player(), PortalInterest.fullSync(
+                                        context.player(), PORTALS.get(context.player().getWorld()).getPortalRegistry()));
+                        });
+                });
+                ServerTickEvents.END_SERVER_TICK.register(PortalTasks::tick);
+                ServerTickEvents.END_SERVER_TICK.register(ItemStream::flush);
+                ServerTickEvents.END_SERVER_TICK.register(TeleportScheduler::tick);
+                ServerTickEvents.END_SERVER_TICK.register(PortalInterest::tick);
+                ServerTickEvents.END_SERVER_TICK.register(PortalSweeper::tick);
+                ServerPlayConnectionEvents.DISCONNECT.register(PortalInterest::onDisconnect);
+                ServerChunkEvents.CHUNK_LOAD.register((world, chunk) -> PORTALS.get(world).getPortalRegistry()
+                        .loadChunk(world.getRegistryKey().getValue().toString(), chunk.getPos().x, chunk.getPos().z));
+                ServerChunkEvents.CHUNK_LOAD.register(PortalInterest::onChunkLoad);
+                ServerChunkEvents.CHUNK_UNLOAD.register(PortalInterest::onChunkUnload);
+                // Stacks still queued when the server stops are delivered before the worlds are saved
+                ServerLifecycleEvents.SERVER_STOPPING.register(ItemStream::flush);
+                ServerLifecycleEvents.SERVER_STOPPED.register(TeleportScheduler::clear);
+                ServerLifecycleEvents.SERVER_STOPPED.register(PortalInterest::clear);
+                ServerLifecycleEvents.SERVER_STOPPED.register(PortalSweeper::clear);
+                ServerLifecycleEvents.SERVER_STOPPED.register(PortalTasks::clear);
+                // Replayed first, so that sharing the registry also indexes replayed portals in chunks already loaded
+                ServerLifecycleEvents.SERVER_STARTED.register(PortalJournal::replay);
+                ServerLifecycleEvents.SERVER_STARTED.register(WorldPortals::shareRegistry);
+                ServerLifecycleEvents.SERVER_STARTED.register(LinkSolver::onServerStarted);
+                ServerLifecycleEvents.SERVER_STOPPED.register(LinkSolver::clear);
+                ServerLifecycleEvents.AFTER_SAVE.register(PortalJournal::truncate);
+                CommandRegistrationCallback.EVENT.register(PortalsCommand::register);
+                ServerLifecycleEvents.SERVER_STOPPED.register(PortalJournal::close);
         }
 
         @Override
@@ -1,13 +1,20 @@
 package dev.custom.portals;
 
+import dev.custom.portals.config.CPSettings;
+import dev.custom.portals.data.WorldPortals;
 import dev.custom.portals.registry.CPBlocks;
 import dev.custom.portals.registry.CPItems;
 import dev.custom.portals.registry.CPParticleFactoryRegistration;
 import dev.custom.portals.util.ClientUtil;
-import dev.custom.portals.util.DrawSpritePayload;
-import dev.custom.portals.util.PortalHelper;
+import dev.custom.portals.util.PortalPrediction;
+import dev.custom.portals.util.PortalResyncPayload;
+import dev.custom.portals.util.PortalSpriteCache;
+import dev.custom.portals.util.PortalSyncPayload;
+import dev.custom.portals.util.PortalTransitionPayload;
 import net.fabricmc.api.ClientModInitializer;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
 import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
+import net.minecraft.util.Util;
 
 public class CustomPortalsClient implements ClientModInitializer {
     @Override
@@ -15,9 +22,32 @@ public class CustomPortalsClient implements ClientModInitializer {
         CPBlocks.setBlockRenderLayers();
         CPItems.registerItemTooltips();
         CPParticleFactoryRegistration.register();
-        ClientPlayNetworking.registerGlobalReceiver(DrawSpritePayload.ID, (payload, context) -> {
+        PortalSpriteCache.register();
+        ClientPlayNetworking.registerGlobalReceiver(PortalTransitionPayload.ID, (payload, context) -> {
+            if (!payload.isSupported())
+                return;
             context.client().execute(() -> {
-                ClientUtil.transitionBackgroundSpriteModel = payload.colorId() == 0 ? null : PortalHelper.getPortalBlockFromColorId(payload.colorId());
+                ClientUtil.transitionSequence = payload.sequence();
+                if (payload.state() == PortalTransitionPayload.State.FLASH) {
+                    if (CPSettings.instance().seamlessTeleportFlash) {
+                        ClientUtil.flashColor = payload.colorId();
+                        ClientUtil.flashStart = Util.getMeasuringTimeMs();
+                    }
+                    return;
+                }
+                ClientUtil.transitionColor = payload.state() == PortalTransitionPayload.State.EXIT ? 0 : payload.colorId();
+                ClientUtil.transitionDelay = payload.state() == PortalTransitionPayload.State.ENTER ? payload.delay() : 0;
+            });
+        });
+        ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> client.execute(() -> {
+            PortalPrediction.reset();
+            ClientUtil.transitionDelay = 0;
+        }));
+        ClientPlayNetworking.registerGlobalReceiver(PortalSyncPayload.ID, (payload, context) -> {
+            context.client().execute(() -> {
+                if (context.client().world != null && CustomPortals.PORTALS.get(context.client().world) instanceof WorldPortals worldPortals
+                        && !worldPortals.receiveSync(payload))
+                    ClientPlayNetworking.send(new PortalResyncPayload());
             });
         });
     }
@@ -5,8 +5,6 @@ import dev.custom.portals.data.CustomPortal;
 import net.minecraft.block.*;
 import net.minecraft.entity.*;
 import net.minecraft.fluid.Fluid;
-import net.minecraft.registry.RegistryKey;
-import net.minecraft.server.MinecraftServer;
 import net.minecraft.text.*;
 import net.minecraft.util.Hand;
 import net.minecraft.util.ActionResult;
@@ -16,8 +14,12 @@ import net.minecraft.util.math.random.Random;
 
 import dev.custom.portals.CustomPortals;
 import dev.custom.portals.util.EntityMixinAccess;
+import dev.custom.portals.util.ItemStream;
+import dev.custom.portals.util.PortalEffectsBudget;
+import dev.custom.portals.util.PortalHelper;
+import dev.custom.portals.util.TeleportScheduler;
 import dev.custom.portals.registry.CPItems;
-import dev.custom.portals.registry.CPParticlesConstants;
+import dev.custom.portals.registry.PortalParticleEffect;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 import net.minecraft.block.entity.BlockEntity;
@@ -26,7 +28,6 @@ import net.minecraft.block.entity.BlockEntityType;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
-import net.minecraft.particle.ParticleTypes;
 import net.minecraft.sound.SoundCategory;
 import net.minecraft.sound.SoundEvents;
 import net.minecraft.state.StateManager;
@@ -51,6 +52,7 @@ public class PortalBlock extends Block implements BlockEntityProvider, Waterlogg
    protected static final VoxelShape X_SHAPE;
    protected static final VoxelShape Z_SHAPE;
    protected static final VoxelShape Y_SHAPE;
+   private PortalParticleEffect particleEffect;
     
    public PortalBlock(AbstractBlock.Settings settings) {
       super(settings);
@@ -76,6 +78,8 @@ public class PortalBlock extends Block implements BlockEntityProvider, Waterlogg
          CustomPortal portal = CustomPortals.PORTALS.get(world).getPortalFromPos(blockPos);
          if (portal == null) return ActionResult.FAIL;
          portal.setSpawnPos(blockPos);
+         if (!world.isClient())
+            CustomPortals.PORTALS.get(world).syncWithAll(((ServerWorld)world).getServer());
          if (world.isClient())
             playerEntity.sendMessage(Text.of("Set portal's spawn position to " + CustomPortals.blockPosToString(blockPos)), true);
          return ActionResult.SUCCESS;
@@ -87,8 +91,10 @@ public class PortalBlock extends Block implements BlockEntityProvider, Waterlogg
       CustomPortal portal = CustomPortals.PORTALS.get(world).getPortalFromPos(pos);
       if(portal == null)
          return;
-      if(portal.isInterdimensional()) {
-         if (portal.getLinked().getDimensionId().equals("minecraft:the_nether") && world.getGameRules().getBoolean(GameRules.DO_MOB_SPAWNING) && random.nextInt(2000) < world.getDifficulty().getId()) {
+      // Read through the link, the linked portal itself may be in a world ticking on another thread
+      CustomPortal.Link link = portal.getLink();
+      if(link != null && portal.isInterdimensional()) {
+         if (link.dimensionId().equals("minecraft:the_nether") && world.getGameRules().getBoolean(GameRules.DO_MOB_SPAWNING) && random.nextInt(2000) < world.getDifficulty().getId()) {
             while(world.getBlockState(pos).isOf(this)) {
                pos = pos.down();
             }
@@ -100,7 +106,7 @@ public class PortalBlock extends Block implements BlockEntityProvider, Waterlogg
                }
             }
          }
-         if (portal.getLinked().getDimensionId().equals("minecraft:the_end") && world.getGameRules().getBoolean(GameRules.DO_MOB_SPAWNING) && random.nextInt(2000) < world.getDifficulty().getId()) {
+         if (link.dimensionId().equals("minecraft:the_end") && world.getGameRules().getBoolean(GameRules.DO_MOB_SPAWNING) && random.nextInt(2000) < world.getDifficulty().getId()) {
             while(world.getBlockState(pos).isOf(this)) {
                pos = pos.down();
             }
@@ -208,23 +214,55 @@ public class PortalBlock extends Block implements BlockEntityProvider, Waterlogg
    }
 
    protected void doOnEntityCollision(BlockState state, World world, BlockPos pos, Entity entity) {
-      if (!state.get(LIT))
+      // Passengers travel with their root vehicle and never use the portal themselves
+      if (!state.get(LIT) || !entity.canUsePortals(false))
+         return;
+      // An entity overlapping many blocks of the same portal only needs to be handled once per tick, and only the
+      // first of those blocks needs the registry lookup
+      long time = world.getTime();
+      if (((EntityMixinAccess) entity).handledPortalCollision(time, pos))
          return;
       CustomPortal portal = CustomPortals.PORTALS.get(world).getPortalFromPos(pos);
-      if (portal != null && entity.canUsePortals(false)) {
-         entity.tryUsePortal(this, pos);
-         ((EntityMixinAccess) entity).setInCustomPortal(portal);
+      if (portal == null)
+         return;
+      ((EntityMixinAccess) entity).setHandledPortalCollision(time, portal);
+      // Entities that just came out of this portal have to step out of it before they can use it again
+      if (((EntityMixinAccess) entity).isInArrivalGrace(portal, time)) {
+         ((EntityMixinAccess) entity).setArrivalGrace(portal, time + CPSettings.instance().arrivalGraceTicks);
+         return;
       }
+      if (entity instanceof ItemEntity itemEntity && world instanceof ServerWorld serverWorld && CPSettings.instance().itemStreamMode
+            && !itemEntity.hasPortalCooldown() && ItemStream.tryEnqueue(serverWorld, portal, itemEntity))
+         return;
+      entity.tryUsePortal(this, pos);
+      ((EntityMixinAccess) entity).setInCustomPortal(portal);
    }
    
    @Environment(EnvType.CLIENT)
    public void randomDisplayTick(BlockState state, World world, BlockPos pos, Random random) {
       if (!(Boolean)state.get(LIT))
          return;
+      CustomPortal portal = CustomPortals.PORTALS.get(world).getPortalFromPos(pos);
       if (random.nextInt(100) == 0) {
-         world.playSoundClient((double)pos.getX() + 0.5D, (double)pos.getY() + 0.5D, (double)pos.getZ() + 0.5D, SoundEvents.BLOCK_PORTAL_AMBIENT, SoundCategory.BLOCKS, 0.5F, random.nextFloat() * 0.4F + 0.8F, false);
+         if (portal == null)
+            world.playSoundClient((double)pos.getX() + 0.5D, (double)pos.getY() + 0.5D, (double)pos.getZ() + 0.5D, SoundEvents.BLOCK_PORTAL_AMBIENT, SoundCategory.BLOCKS, 0.5F, random.nextFloat() * 0.4F + 0.8F, false);
+         else if (PortalEffectsBudget.tryPlayAmbientSound(world, portal)) {
+            Vec3d centroid = portal.getCentroid();
+            world.playSoundClient(centroid.x, centroid.y, centroid.z, SoundEvents.BLOCK_PORTAL_AMBIENT, SoundCategory.BLOCKS, 0.5F, random.nextFloat() * 0.4F + 0.8F, false);
+         }
+      }
+      int count = PortalEffectsBudget.getParticleCount(world, pos, portal);
+      byte edges;
+      if (portal != null)
+         edges = portal.getEdgeFlags(pos);
+      else {
+         edges = 0;
+         if (!world.getBlockState(pos.west()).isOf(this) && !world.getBlockState(pos.east()).isOf(this))
+            edges |= CustomPortal.EDGE_WEST_EAST;
+         if (!world.getBlockState(pos.up()).isOf(this) && !world.getBlockState(pos.down()).isOf(this))
+            edges |= CustomPortal.EDGE_UP_DOWN;
       }
-      for(int i = 0; i < 4; ++i) {
+      for(int i = 0; i < count; ++i) {
          double d = (double)pos.getX() + random.nextDouble();
          double e = (double)pos.getY() + random.nextDouble();
          double f = (double)pos.getZ() + random.nextDouble();
@@ -232,54 +270,28 @@ public class PortalBlock extends Block implements BlockEntityProvider, Waterlogg
          double h = ((double)random.nextFloat() - 0.5D) * 0.5D;
          double j = ((double)random.nextFloat() - 0.5D) * 0.5D;
          int k = random.nextInt(2) * 2 - 1;
-         if (!world.getBlockState(pos.west()).isOf(this) && !world.getBlockState(pos.east()).isOf(this) && (Direction.Axis)state.get(Properties.AXIS) == Direction.Axis.Z) {
+         if ((edges & CustomPortal.EDGE_WEST_EAST) != 0 && (Direction.Axis)state.get(Properties.AXIS) == Direction.Axis.Z) {
             d = (double)pos.getX() + 0.5D + 0.25D * (double)k;
             g = (double)(random.nextFloat() * 2.0F * (float)k);
          } 
-         else if (!world.getBlockState(pos.up()).isOf(this) && !world.getBlockState(pos.down()).isOf(this)) {
+         else if ((edges & CustomPortal.EDGE_UP_DOWN) != 0) {
             e = (double)pos.getY() + 0.5D + 0.25D * (double)k;
             h = (double)(random.nextFloat() * 2.0F * (float)k);
          } else {
             f = (double)pos.getZ() + 0.5D + 0.25D * (double)k;
             j = (double)(random.nextFloat() * 2.0F * (float)k);
          }
-         switch(this.getDefaultMapColor().id) {
-            case 29: world.addParticleClient(CPParticlesConstants.BLACK_PORTAL_PARTICLE, d, e, f, g, h, j);
-            break;
-            case 25: world.addParticleClient(CPParticlesConstants.BLUE_PORTAL_PARTICLE, d, e, f, g, h, j);
-            break;
-            case 26: world.addParticleClient(CPParticlesConstants.BROWN_PORTAL_PARTICLE, d, e, f, g, h, j);
-            break;
-            case 23: world.addParticleClient(CPParticlesConstants.CYAN_PORTAL_PARTICLE, d, e, f, g, h, j);
-            break;
-            case 21: world.addParticleClient(CPParticlesConstants.GRAY_PORTAL_PARTICLE, d, e, f, g, h, j);
-            break;
-            case 27: world.addParticleClient(CPParticlesConstants.GREEN_PORTAL_PARTICLE, d, e, f, g, h, j);
-            break;
-            case 17: world.addParticleClient(CPParticlesConstants.LIGHT_BLUE_PORTAL_PARTICLE, d, e, f, g, h, j);
-            break;
-            case 22: world.addParticleClient(CPParticlesConstants.LIGHT_GRAY_PORTAL_PARTICLE, d, e, f, g, h, j);
-            break;
-            case 19: world.addParticleClient(CPParticlesConstants.LIME_PORTAL_PARTICLE, d, e, f, g, h, j);
-            break;
-            case 16: world.addParticleClient(CPParticlesConstants.MAGENTA_PORTAL_PARTICLE, d, e, f, g, h, j);
-            break;
-            case 15: world.addParticleClient(CPParticlesConstants.ORANGE_PORTAL_PARTICLE, d, e, f, g, h, j);
-            break;
-            case 20: world.addParticleClient(CPParticlesConstants.PINK_PORTAL_PARTICLE, d, e, f, g, h, j);
-            break;
-            case 24: world.addParticleClient(ParticleTypes.PORTAL, d, e, f, g, h, j);
-            break;
-            case 28: world.addParticleClient(CPParticlesConstants.RED_PORTAL_PARTICLE, d, e, f, g, h, j);
-            break;
-            case 8: world.addParticleClient(CPParticlesConstants.WHITE_PORTAL_PARTICLE, d, e, f, g, h, j);
-            break;
-            case 18: world.addParticleClient(CPParticlesConstants.YELLOW_PORTAL_PARTICLE, d, e, f, g, h, j);
-         }
+         world.addParticleClient(this.getParticleEffect(), d, e, f, g, h, j);
       }
    
    }
 
+   private PortalParticleEffect getParticleEffect() {
+      if (this.particleEffect == null)
+         this.particleEffect = new PortalParticleEffect(this.getDefaultMapColor().id);
+      return this.particleEffect;
+   }
+
    @Override
    public boolean canFillWithFluid(@Nullable LivingEntity livingEntity, BlockView blockView, BlockPos blockPos, BlockState blockState, Fluid fluid) {
       return false;
@@ -354,46 +366,66 @@ public class PortalBlock extends Block implements BlockEntityProvider, Waterlogg
    public TeleportTarget createTeleportTarget(ServerWorld serverWorld, Entity entity, BlockPos blockPos) {
       CustomPortal portal = CustomPortals.PORTALS.get(serverWorld).getPortalFromPos(blockPos);
       if (portal == null) return null;
-      CustomPortal destPortal = portal.getLinked();
-      if (destPortal == null) return null;
-      MinecraftServer minecraftServer = serverWorld.getServer();
-      String dimensionId = portal.getDimensionId();
-      String destDimensionId = destPortal.getDimensionId();
-      ServerWorld serverWorld2 = null;
-      if(!destDimensionId.equals(dimensionId)) {
-         for(RegistryKey<World> registryKey : minecraftServer.getWorldRegistryKeys()) {
-            if(registryKey.getValue().toString().equals(destDimensionId)) {
-               serverWorld2 = minecraftServer.getWorld(registryKey);
-            }
-         }
+      /* Mobs and items are handed to the scheduler, which teleports them itself within its per-tick budget.
+       * Returning null here makes vanilla skip the teleport; the portal cooldown it sets keeps the entity from
+       * being queued twice.
+       */
+      if (portal.getLinked() != null && TeleportScheduler.shouldQueue(entity)) {
+         TeleportScheduler.enqueue(serverWorld, portal, entity);
+         return null;
       }
+      return createCustomTeleportTarget(serverWorld, entity, portal);
+   }
+
+   @Nullable
+   public static TeleportTarget createCustomTeleportTarget(ServerWorld serverWorld, Entity entity, CustomPortal portal) {
+      CustomPortal.Link link = portal.getLink();
+      if (link == null) return null;
+      CustomPortal destPortal = link.portal();
+      ServerWorld serverWorld2;
+      if(!link.dimensionId().equals(portal.getDimensionId()))
+         serverWorld2 = PortalHelper.getWorldFromDimensionId(serverWorld.getServer(), link.dimensionId());
       else serverWorld2 = serverWorld;
       if (serverWorld2 == null) {
          return null;
       } else {
-         BlockPos dest = destPortal.getSpawnPos();
-         float destX = (float)dest.getX();
-         float destY = (float)dest.getY();
-         float destZ = (float)dest.getZ();
-         destX += destPortal.offsetX;
-         destZ += destPortal.offsetZ;
+         Vec3d arrival = link.arrivalPos();
+         double destY = arrival.y;
          /* For some reason, when the player is going from the Overworld to the End, the Y coordinate somehow gets
           * decreased by 1. I have no idea why this happens or how to fix it directly, so this is here to correct it.
           */
-         if(destPortal.getDimensionId().equals("minecraft:the_end") && serverWorld2.getRegistryKey() == World.OVERWORLD)
+         if(link.dimensionId().equals("minecraft:the_end") && serverWorld2.getRegistryKey() == World.OVERWORLD)
             destY += 1.0f;
-         return new TeleportTarget(serverWorld2, new Vec3d(destX, destY, destZ), entity.getVelocity(), entity.getYaw(), entity.getPitch(), TeleportTarget.NO_OP);
+         long graceUntil = serverWorld2.getTime() + CPSettings.instance().arrivalGraceTicks;
+         ((EntityMixinAccess)entity).setArrivalGrace(destPortal, graceUntil);
+         /* Vanilla carries the riders along with the vehicle's target, and across dimensions still re-creates and
+          * re-seats them one by one. Riders crossing dimensions are flagged so that players among them take the custom
+          * portal path instead of vanilla's dimension change handling.
+          */
+         for (Entity passenger : entity.getPassengersDeep()) {
+            ((EntityMixinAccess)passenger).setArrivalGrace(destPortal, graceUntil);
+            if (serverWorld2 != serverWorld)
+               ((EntityMixinAccess)passenger).setRidingThroughCustomPortal(portal);
+         }
+         return new TeleportTarget(serverWorld2, new Vec3d(arrival.x, destY, arrival.z), entity.getVelocity(), entity.getYaw(), entity.getPitch(), TeleportTarget.NO_OP);
       }
    }
 
    @Override
    public int getPortalDelay(ServerWorld serverWorld, Entity entity) {
-      CustomPortal destPortal = ((EntityMixinAccess)entity).getDestPortal();
-      if (entity instanceof PlayerEntity playerEntity && destPortal != null) {
-         if (CPSettings.instance().alwaysHaste == CPSettings.HasteEnum.CREATIVE)
-            return Math.max(1, playerEntity.getAbilities().invulnerable ? serverWorld.getGameRules().getInt(GameRules.PLAYERS_NETHER_PORTAL_CREATIVE_DELAY) : destPortal.getPlayerTeleportDelay());
-         else return destPortal.getPlayerTeleportDelay();
-      }
+      EntityMixinAccess access = (EntityMixinAccess)entity;
+      if (entity instanceof PlayerEntity playerEntity && access.getSourcePortal() != null && access.getDestPortal() != null)
+         return getPlayerPortalDelay(serverWorld, playerEntity, access.getSourcePortal());
       return 0;
    }
+
+   /* Also sent to the client with the transition, so that teleport prediction waits as long as the server does.
+    * Haste counts the runes on both sides of the link, so the portal the player stands in answers for the pair
+    * without reading the linked portal, which may belong to a world ticking on another thread.
+    */
+   public static int getPlayerPortalDelay(ServerWorld serverWorld, PlayerEntity playerEntity, CustomPortal portal) {
+      if (CPSettings.instance().alwaysHaste == CPSettings.HasteEnum.CREATIVE)
+         return Math.max(1, playerEntity.getAbilities().invulnerable ? serverWorld.getGameRules().getInt(GameRules.PLAYERS_NETHER_PORTAL_CREATIVE_DELAY) : portal.getPlayerTeleportDelay());
+      else return portal.getPlayerTeleportDelay();
+   }
 }
\ No newline at end of file
@@ -0,0 +1,191 @@
+package dev.custom.portals.command;
+
+import com.mojang.brigadier.Command;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.ArgumentBuilder;
+import com.mojang.brigadier.context.CommandContext;
+import dev.custom.portals.CustomPortals;
+import dev.custom.portals.data.CustomPortal;
+import dev.custom.portals.data.PortalRegistry;
+import dev.custom.portals.util.PortalSweeper;
+import net.minecraft.command.CommandRegistryAccess;
+import net.minecraft.command.CommandSource;
+import net.minecraft.registry.Registries;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.CommandManager;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.text.ClickEvent;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+import net.minecraft.util.Identifier;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * The /customportals command, for operators to look over the portals of a running server. Listings are put together
+ * on a virtual thread from a registry snapshot and sent back a page at a time, so the server thread only pays for
+ * taking the snapshot and sending the page, however many portals there are.
+ */
+public class PortalsCommand {
+
+    private static final int PAGE_SIZE = 10;
+
+    public static void register(CommandDispatcher<ServerCommandSource> dispatcher, CommandRegistryAccess registryAccess,
+                                CommandManager.RegistrationEnvironment environment) {
+        dispatcher.register(CommandManager.literal("customportals")
+                .requires(source -> source.hasPermissionLevel(2))
+                .then(paged(CommandManager.literal("list"), (context, page) -> list(context.getSource(), page)))
+                .then(CommandManager.literal("creator")
+                        .then(paged(CommandManager.argument("player", StringArgumentType.word())
+                                .suggests((context, builder) -> CommandSource.suggestMatching(context.getSource().getPlayerNames(), builder)),
+                                (context, page) -> creator(context.getSource(), StringArgumentType.getString(context, "player"), page))))
+                .then(paged(CommandManager.literal("links"), (context, page) -> links(context.getSource(), page)))
+                .then(CommandManager.literal("sweeper").executes(context -> sweeper(context.getSource()))));
+    }
+
+    private interface PagedCommand {
+        int run(CommandContext<ServerCommandSource> context, int page);
+    }
+
+    // Runs the command on its first page, or on the page given after it
+    private static <T extends ArgumentBuilder<ServerCommandSource, T>> T paged(T builder, PagedCommand command) {
+        return builder
+                .executes(context -> command.run(context, 1))
+                .then(CommandManager.argument("page", IntegerArgumentType.integer(1))
+                        .executes(context -> command.run(context, IntegerArgumentType.getInteger(context, "page"))));
+    }
+
+    private static int list(ServerCommandSource source, int page) {
+        return query(source, "/customportals list", page, snapshot -> {
+            List<Text> lines = new ArrayList<>();
+            for (CustomPortal portal : snapshot.portals())
+                lines.add(describe(portal));
+            return lines;
+        });
+    }
+
+    private static int creator(ServerCommandSource source, String player, int page) {
+        UUID creatorId;
+        ServerPlayerEntity online = source.getServer().getPlayerManager().getPlayer(player);
+        if (online != null) {
+            creatorId = online.getUuid();
+        } else {
+            try {
+                creatorId = UUID.fromString(player);
+            } catch (IllegalArgumentException e) {
+                source.sendError(Text.literal("No player online named " + player + ", use their UUID instead"));
+                return 0;
+            }
+        }
+        return query(source, "/customportals creator " + player, page, snapshot -> {
+            List<Text> lines = new ArrayList<>();
+            for (CustomPortal portal : snapshot.portals()) {
+                if (creatorId.equals(portal.getCreatorId()))
+                    lines.add(describe(portal));
+            }
+            return lines;
+        });
+    }
+
+    private static int links(ServerCommandSource source, int page) {
+        return query(source, "/customportals links", page, snapshot -> {
+            List<Text> lines = new ArrayList<>();
+            // Each pair is listed once, from whichever side comes first
+            Set<CustomPortal> listed = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (CustomPortal portal : snapshot.portals()) {
+                CustomPortal.Link link = portal.getLink();
+                if (link == null || listed.contains(portal))
+                    continue;
+                listed.add(portal);
+                CustomPortal.Link back = link.portal().getLink();
+                boolean mutual = back != null && back.portal() == portal;
+                if (mutual)
+                    listed.add(link.portal());
+                lines.add(Text.empty()
+                        .append(location(portal))
+                        .append(Text.literal(mutual ? " <-> " : " -> ").formatted(mutual ? Formatting.GREEN : Formatting.YELLOW))
+                        .append(location(link.portal())));
+            }
+            return lines;
+        });
+    }
+
+    private static int sweeper(ServerCommandSource source) {
+        source.sendFeedback(() -> Text.literal("Checked " + PortalSweeper.getChecked() + " portals, removed "
+                + PortalSweeper.getOrphaned() + " with no blocks left and " + PortalSweeper.getPartial() + " with some blocks missing"), false);
+        return Command.SINGLE_SUCCESS;
+    }
+
+    /**
+     * Runs the query on a virtual thread against the registry as it is now, then sends the requested page of its
+     * results. The query must only read the snapshot and the portals in it.
+     */
+    private static int query(ServerCommandSource source, String command, int page, Function<PortalRegistry.Snapshot, List<Text>> query) {
+        MinecraftServer server = source.getServer();
+        // Commands run on the server thread, which can publish changes made since the last batch before taking the snapshot
+        PortalRegistry.Snapshot snapshot = CustomPortals.PORTALS.get(server.getOverworld()).getPortalRegistry().publishSnapshot();
+        Thread.ofVirtual().name("Custom Portals Query").start(() -> {
+            List<Text> lines;
+            try {
+                lines = query.apply(snapshot);
+            } catch (RuntimeException e) {
+                CustomPortals.LOGGER.error("Failed to run {}", command, e);
+                server.execute(() -> source.sendError(Text.literal("Failed to run " + command + ", see the server log")));
+                return;
+            }
+            List<Text> messages = toPage(lines, command, page);
+            server.execute(() -> {
+                for (Text message : messages)
+                    source.sendFeedback(() -> message, false);
+            });
+        });
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static List<Text> toPage(List<Text> lines, String command, int page) {
+        int pages = Math.max(1, (lines.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+        int shown = Math.min(page, pages);
+        List<Text> messages = new ArrayList<>();
+        messages.add(Text.literal(lines.size() + " results, page " + shown + " of " + pages).formatted(Formatting.GOLD));
+        messages.addAll(lines.subList((shown - 1) * PAGE_SIZE, Math.min(lines.size(), shown * PAGE_SIZE)));
+        if (shown < pages) {
+            String next = command + " " + (shown + 1);
+            messages.add(Text.literal("[Next page]").styled(style -> style
+                    .withColor(Formatting.AQUA).withClickEvent(new ClickEvent.RunCommand(next))));
+        }
+        return messages;
+    }
+
+    private static Text describe(CustomPortal portal) {
+        MutableText text = Text.empty()
+                .append(location(portal))
+                .append(" ")
+                .append(frameName(portal).formatted(Formatting.GRAY));
+        CustomPortal.Link link = portal.getLink();
+        if (link == null)
+            return text.append(Text.literal(" unlinked").formatted(Formatting.RED));
+        return text.append(Text.literal(" -> ").formatted(Formatting.GREEN)).append(location(link.portal()));
+    }
+
+    // Frames are saved by block id, older portals may have something else there, which is shown as it is
+    private static MutableText frameName(CustomPortal portal) {
+        Identifier id = Identifier.tryParse(portal.getFrameId());
+        if (id == null || !Registries.BLOCK.containsId(id))
+            return Text.literal(portal.getFrameId());
+        return Registries.BLOCK.get(id).getName();
+    }
+
+    private static Text location(CustomPortal portal) {
+        return Text.literal(portal.getDimensionId() + " " + CustomPortals.blockPosToString(portal.getAnchor()));
+    }
+}
@@ -2,6 +2,7 @@ package dev.custom.portals.config;
 
 import dev.isxander.yacl3.api.NameableEnum;
 import dev.isxander.yacl3.api.Option;
+import dev.isxander.yacl3.api.YetAnotherConfigLib;
 import dev.isxander.yacl3.api.controller.ControllerBuilder;
 import dev.isxander.yacl3.api.controller.StringControllerBuilder;
 import dev.isxander.yacl3.config.v2.api.ConfigClassHandler;
@@ -19,6 +20,7 @@ import org.jetbrains.annotations.Nullable;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public final class CPSettings {
 
@@ -34,8 +36,21 @@ public final class CPSettings {
         HANDLER.load();
     }
 
+    private static final List<Runnable> saveListeners = new CopyOnWriteArrayList<>();
+
     public static void save() {
         HANDLER.save();
+        onSaved();
+    }
+
+    // Runs after every save, including from the config screen, for settings that take more than reading them again
+    public static void addSaveListener(Runnable listener) {
+        saveListeners.add(listener);
+    }
+
+    private static void onSaved() {
+        for (Runnable listener : saveListeners)
+            listener.run();
     }
 
     public static CPSettings instance() {
@@ -94,6 +109,76 @@ public final class CPSettings {
     })
     @SerialEntry(comment = "Allows customizing which blocks may be used as portal frames. Takes the block's id, e.g. \"minecraft:stone\" for stone block.")
     public List<String> filteredBlocks = new ArrayList<>();
+    @AutoGen(category = "performance")
+    @Boolean
+    @CustomDescription({
+            "Dropped items are delivered at the linked portal as merged stacks, or inserted into a container next to it, instead of being teleported one by one."
+    })
+    @SerialEntry(comment = "Dropped items are delivered at the linked portal as merged stacks, or inserted into a container next to it, instead of being teleported one by one.")
+    public boolean itemStreamMode = false;
+    @AutoGen(category = "performance")
+    @IntField(min = 0, max = Integer.MAX_VALUE)
+    @CustomDescription({
+            "Ticks an entity that just arrived through a portal ignores the portal it arrived at. Standing in that portal keeps the grace active."
+    })
+    @SerialEntry(comment = "Ticks an entity that just arrived through a portal ignores the portal it arrived at. Standing in that portal keeps the grace active.")
+    public int arrivalGraceTicks = 20;
+    @AutoGen(category = "performance")
+    @IntField(min = 0, max = Integer.MAX_VALUE)
+    @CustomDescription({
+            "Microseconds per tick spent on teleporting mobs and items. Teleports beyond that wait for the next tick, taken in turns between portals. Players are never held back. 0, the default, teleports everything immediately."
+    })
+    @SerialEntry(comment = "Microseconds per tick spent on teleporting mobs and items. Teleports beyond that wait for the next tick, taken in turns between portals. Players are never held back. 0, the default, teleports everything immediately.")
+    public int teleportBudgetMicros = 0;
+    @AutoGen(category = "performance")
+    @IntField(min = 0, max = Integer.MAX_VALUE)
+    @CustomDescription({
+            "Client only. Most blocks of one portal that may spawn particles in the same tick, so large portals do not flood the screen. 0 removes the limit."
+    })
+    @SerialEntry(comment = "Client only. Most blocks of one portal that may spawn particles in the same tick, so large portals do not flood the screen. 0 removes the limit.")
+    public int maxParticleEmittersPerPortal = 16;
+    @AutoGen(category = "performance")
+    @Boolean
+    @CustomDescription({
+            "Teleports within the same dimension to a spot the player's client already has loaded skip the loading screen."
+    })
+    @SerialEntry(comment = "Teleports within the same dimension to a spot the player's client already has loaded skip the loading screen.")
+    public boolean seamlessLocalTeleports = false;
+    @AutoGen(category = "performance")
+    @Boolean
+    @CustomDescription({
+            "Client only. Briefly flashes the portal's color when a teleport skips the loading screen."
+    })
+    @SerialEntry(comment = "Client only. Briefly flashes the portal's color when a teleport skips the loading screen.")
+    public boolean seamlessTeleportFlash = true;
+    @AutoGen(category = "performance")
+    @Boolean
+    @CustomDescription({
+            "Client only. Moves you to the destination of a same-dimension teleport without waiting for the server, which then confirms or undoes it. Only useful on servers with seamlessLocalTeleports enabled."
+    })
+    @SerialEntry(comment = "Client only. Moves you to the destination of a same-dimension teleport without waiting for the server, which then confirms or undoes it. Only useful on servers with seamlessLocalTeleports enabled.")
+    public boolean predictLocalTeleports = false;
+    @AutoGen(category = "performance")
+    @Boolean
+    @CustomDescription({
+            "Records portal changes in a small log next to the world save, so portals built or broken since the last autosave survive a crash."
+    })
+    @SerialEntry(comment = "Records portal changes in a small log next to the world save, so portals built or broken since the last autosave survive a crash.")
+    public boolean portalJournal = true;
+    @AutoGen(category = "performance")
+    @IntField(min = 0, max = Integer.MAX_VALUE)
+    @CustomDescription({
+            "Microseconds per tick spent on checking portals for blocks that disappeared without the portal being broken, e.g. through world editing. Such portals are removed. 0 turns the check off."
+    })
+    @SerialEntry(comment = "Microseconds per tick spent on checking portals for blocks that disappeared without the portal being broken, e.g. through world editing. Such portals are removed. 0 turns the check off.")
+    public int sweeperBudgetMicros = 100;
+    @AutoGen(category = "performance")
+    @IntField(min = 0, max = Integer.MAX_VALUE)
+    @CustomDescription({
+            "Portal count from which linking every portal at once, such as when the world loads, is worked out on a background thread instead of holding up the server. 0 always links on the server thread."
+    })
+    @SerialEntry(comment = "Portal count from which linking every portal at once, such as when the world loads, is worked out on a background thread instead of holding up the server. 0 always links on the server thread.")
+    public int backgroundLinkThreshold = 256;
 
     public enum HasteEnum implements NameableEnum {
         YES("True"), NO("False"), CREATIVE("Creative Mode Only");
@@ -124,7 +209,18 @@ public final class CPSettings {
     }
 
     public static Screen createScreen(@Nullable Screen parent) {
-        return HANDLER.generateGui().generateScreen(parent);
+        YetAnotherConfigLib gui = HANDLER.generateGui();
+        // The generated screen saves through the handler directly, so its save is wrapped to reach the listeners
+        return YetAnotherConfigLib.createBuilder()
+                .title(gui.title())
+                .categories(gui.categories())
+                .save(() -> {
+                    gui.saveFunction().run();
+                    onSaved();
+                })
+                .screenInit(gui.initConsumer())
+                .build()
+                .generateScreen(parent);
     }
 
     public static class ListFactory implements ListGroup.ValueFactory<String>, ListGroup.ControllerFactory<String> {
@@ -3,16 +3,26 @@ package dev.custom.portals.data;
 import java.util.List;
 import java.util.UUID;
 
+import com.mojang.datafixers.util.Pair;
 import com.mojang.serialization.Codec;
+import com.mojang.serialization.DataResult;
+import com.mojang.serialization.DynamicOps;
 import com.mojang.serialization.codecs.RecordCodecBuilder;
 import dev.custom.portals.config.CPSettings;
 import net.minecraft.block.MapColor;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtOps;
 import net.minecraft.text.ClickEvent;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Vec3d;
 import net.minecraft.util.math.Vec3i;
 
 public class CustomPortal {
 
+    // Edge flags of a portal block: no portal block to the west and east of it, or none above and below it
+    public static final byte EDGE_WEST_EAST = 1;
+    public static final byte EDGE_UP_DOWN = 2;
+
     public float offsetX;
     public float offsetZ;
 
@@ -21,7 +31,11 @@ public class CustomPortal {
     private final MapColor color;
 
     private BlockPos spawnPos;
-    private List<BlockPos> portalBlocks;
+    private PortalBlockSet portalBlocks;
+    // Fixed when the portal is made, so that threads other than its world's, like admin queries, can read them
+    private final BlockPos anchor;
+    private final BlockPos minPos;
+    private final BlockPos maxPos;
     private int hasteRunes;
     private int gateRunes;
     private int weakEnhancerRunes;
@@ -31,14 +45,27 @@ public class CustomPortal {
 
     private boolean hasRedstoneSignal = false;
     
-    private CustomPortal linked;
+    private volatile CustomPortal linked;
+    private volatile Link link;
+    private PortalRegistry owner;
+    private Vec3d centroid;
+    // What this portal was last saved as, dropped whenever anything that is saved changes
+    private NbtElement savedData;
+
+    /**
+     * What a portal knows of the portal it is linked to, replaced as a whole whenever any of it changes. Code running
+     * for one world reads this instead of the linked portal itself, which may belong to a world ticking on another
+     * thread.
+     */
+    public record Link(CustomPortal portal, String dimensionId, Vec3d arrivalPos, int hasteRunes, int gateRunes,
+                       int weakEnhancerRunes, int strongEnhancerRunes, int infinityRunes) {}
 
     public static final Codec<CustomPortal> CODEC = RecordCodecBuilder.create(instance -> instance.group(
         Codec.STRING.fieldOf("frameId").forGetter(CustomPortal::getFrameId),
         Codec.STRING.fieldOf("dimensionId").forGetter(CustomPortal::getDimensionId),
         Codec.INT.fieldOf("color").forGetter(CustomPortal::getColorId),
         BlockPos.CODEC.fieldOf("spawnPos").forGetter(CustomPortal::getSpawnPos),
-        BlockPos.CODEC.listOf().fieldOf("portalBlocks").forGetter(CustomPortal::getPortalBlocks),
+        PortalBlockSet.CODEC.fieldOf("portalBlocks").forGetter(portal -> portal.portalBlocks),
         Codec.FLOAT.fieldOf("offsetX").forGetter(CustomPortal::getOffsetX),
         Codec.FLOAT.fieldOf("offsetZ").forGetter(CustomPortal::getOffsetZ),
         Codec.STRING.fieldOf("creatorId").forGetter(CustomPortal::getCreatorIdAsString),
@@ -49,13 +76,41 @@ public class CustomPortal {
         Codec.INT.fieldOf("infinityRunes").forGetter(CustomPortal::getInfinityRunes)
     ).apply(instance, CustomPortal::new));
 
+    /**
+     * Same as {@link #CODEC}, but NBT encoding reuses what the portal was last saved as while it has not changed
+     * since, so saves only re-encode the portals that did.
+     */
+    public static final Codec<CustomPortal> SAVE_CODEC = new Codec<>() {
+        @Override
+        public <T> DataResult<Pair<CustomPortal, T>> decode(DynamicOps<T> ops, T input) {
+            return CODEC.decode(ops, input);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> DataResult<T> encode(CustomPortal portal, DynamicOps<T> ops, T prefix) {
+            if (ops.empty() != NbtOps.INSTANCE.empty() || prefix != ops.empty())
+                return CODEC.encode(portal, ops, prefix);
+            if (portal.savedData == null) {
+                DataResult<NbtElement> result = CODEC.encodeStart(NbtOps.INSTANCE, portal);
+                if (result.isError())
+                    return (DataResult<T>)result;
+                portal.savedData = result.getOrThrow();
+            }
+            return DataResult.success((T)portal.savedData);
+        }
+    };
+
     public CustomPortal(final String frameId, final String dimensionId, final MapColor color, final BlockPos spawnPos,
                         final List<BlockPos> portalBlocks, final float offsetX, final float offsetZ, final UUID creatorId) {
         this.frameId = frameId;
         this.dimensionId = dimensionId;
         this.color = color;
         this.spawnPos = spawnPos;
-        this.portalBlocks = portalBlocks;
+        this.portalBlocks = new PortalBlockSet(portalBlocks);
+        this.anchor = this.portalBlocks.getAnchor();
+        this.minPos = this.portalBlocks.getMin();
+        this.maxPos = this.portalBlocks.getMax();
         this.offsetX = offsetX;
         this.offsetZ = offsetZ;
         this.creatorId = creatorId;
@@ -81,7 +136,10 @@ public class CustomPortal {
         this.dimensionId = dimensionId;
         this.color = color;
         this.spawnPos = spawnPos;
-        this.portalBlocks = portalBlocks;
+        this.portalBlocks = new PortalBlockSet(portalBlocks);
+        this.anchor = this.portalBlocks.getAnchor();
+        this.minPos = this.portalBlocks.getMin();
+        this.maxPos = this.portalBlocks.getMax();
         this.offsetX = offsetX;
         this.offsetZ = offsetZ;
         this.creatorId = creatorId;
@@ -95,11 +153,21 @@ public class CustomPortal {
     public CustomPortal(final String frameId, final String dimensionId, final int colorId, final BlockPos spawnPos,
                         final List<BlockPos> portalBlocks, final float offsetX, final float offsetZ, final String creatorId, int hasteRunes, int gateRunes,
                         int weakEnhancerRunes, int strongEnhancerRunes, int infinityRunes) {
+        this(frameId, dimensionId, colorId, spawnPos, new PortalBlockSet(portalBlocks), offsetX, offsetZ, creatorId, hasteRunes, gateRunes,
+                weakEnhancerRunes, strongEnhancerRunes, infinityRunes);
+    }
+
+    private CustomPortal(final String frameId, final String dimensionId, final int colorId, final BlockPos spawnPos,
+                         final PortalBlockSet portalBlocks, final float offsetX, final float offsetZ, final String creatorId, int hasteRunes, int gateRunes,
+                         int weakEnhancerRunes, int strongEnhancerRunes, int infinityRunes) {
         this.frameId = frameId;
         this.dimensionId = dimensionId;
         this.color = MapColor.get(colorId);
         this.spawnPos = spawnPos;
         this.portalBlocks = portalBlocks;
+        this.anchor = portalBlocks.getAnchor();
+        this.minPos = portalBlocks.getMin();
+        this.maxPos = portalBlocks.getMax();
         this.offsetX = offsetX;
         this.offsetZ = offsetZ;
         this.creatorId = UUID.fromString(creatorId);
@@ -128,12 +196,57 @@ public class CustomPortal {
         return linked;
     }
 
+    public Link getLink() {
+        return link;
+    }
+
     public BlockPos getSpawnPos() {
         return spawnPos;
     }
 
     public List<BlockPos> getPortalBlocks() {
-        return portalBlocks;
+        return portalBlocks.get();
+    }
+
+    public boolean contains(BlockPos pos) {
+        return portalBlocks.indexOf(pos) >= 0;
+    }
+
+    // Whether the blocks of a loaded portal have been expanded from their saved form yet
+    boolean hasPortalBlocks() {
+        return portalBlocks.isExpanded();
+    }
+
+    BlockPos getMinPos() {
+        return minPos;
+    }
+
+    BlockPos getMaxPos() {
+        return maxPos;
+    }
+
+    public Vec3d getCentroid() {
+        if (centroid == null) {
+            double x = 0, y = 0, z = 0;
+            List<BlockPos> blocks = getPortalBlocks();
+            for (BlockPos blockPos : blocks) {
+                x += blockPos.getX();
+                y += blockPos.getY();
+                z += blockPos.getZ();
+            }
+            int n = blocks.size();
+            centroid = new Vec3d(x / n + 0.5, y / n + 0.5, z / n + 0.5);
+        }
+        return centroid;
+    }
+
+    public byte getEdgeFlags(BlockPos pos) {
+        return portalBlocks.getEdgeFlags(pos);
+    }
+
+    // Identifies the portal across the network together with its dimension
+    public BlockPos getAnchor() {
+        return anchor;
     }
 
     public UUID getCreatorId() {
@@ -147,7 +260,8 @@ public class CustomPortal {
     }
 
     public boolean isInterdimensional() {
-        return hasLinked() && !dimensionId.equals(linked.getDimensionId());
+        Link link = this.link;
+        return link != null && !dimensionId.equals(link.dimensionId());
     }
 
     public boolean hasRedstoneSignal() {
@@ -159,7 +273,34 @@ public class CustomPortal {
     }
 
     public void setLinked(final CustomPortal portal) {
+        boolean changed = linked != portal;
         linked = portal;
+        link = portal == null ? null : portal.toLink();
+        if (changed)
+            markChanged(PortalRegistry.Change.LINK_CHANGED);
+    }
+
+    private Link toLink() {
+        return new Link(this, dimensionId, getArrivalPos(), hasteRunes, gateRunes, weakEnhancerRunes, strongEnhancerRunes, infinityRunes);
+    }
+
+    void setOwner(PortalRegistry owner) {
+        this.owner = owner;
+    }
+
+    // False once the portal has been removed, for code holding on to a snapshot taken before that
+    public boolean isRegistered() { return owner != null; }
+
+    private void markChanged(PortalRegistry.Change change) {
+        // Links are worked out again on load rather than saved
+        if (change != PortalRegistry.Change.LINK_CHANGED)
+            savedData = null;
+        // The linked portal's copy of this one is replaced rather than changed, so other threads never see half of it
+        CustomPortal linked = this.linked;
+        if ((change == PortalRegistry.Change.RUNES_CHANGED || change == PortalRegistry.Change.SPAWN_CHANGED) && linked != null && linked.linked == this)
+            linked.link = toLink();
+        if (owner != null)
+            owner.markChanged(this, change);
     }
 
     public int getPlayerTeleportDelay() {
@@ -168,10 +309,20 @@ public class CustomPortal {
         return this.hasHaste() ? 1 : 80;
     }
 
+    // Where entities coming through the linked portal are placed
+    public Vec3d getArrivalPos() {
+        return new Vec3d(spawnPos.getX() + offsetX, spawnPos.getY(), spawnPos.getZ() + offsetZ);
+    }
+
     public void setSpawnPos(BlockPos newSpawn) {
-        spawnPos = newSpawn;
-        offsetX = 0.5f;
-        offsetZ = 0.5f;
+        setSpawn(newSpawn, 0.5f, 0.5f);
+    }
+
+    public void setSpawn(BlockPos spawnPos, float offsetX, float offsetZ) {
+        this.spawnPos = spawnPos;
+        this.offsetX = offsetX;
+        this.offsetZ = offsetZ;
+        markChanged(PortalRegistry.Change.SPAWN_CHANGED);
     }
 
     public int getHasteRunes() { return hasteRunes; }
@@ -180,32 +331,44 @@ public class CustomPortal {
     public int getStrongEnhancerRunes() { return strongEnhancerRunes; }
     public int getInfinityRunes() { return infinityRunes; }
 
-    public void addHaste() { hasteRunes++; }
-    public void addGate() { gateRunes++; }
-    public void addWeakEnhancer() { weakEnhancerRunes++; }
-    public void addStrongEnhancer() { strongEnhancerRunes++; }
-    public void addInfinity() { infinityRunes++; }
+    public void addHaste() { hasteRunes++; markChanged(PortalRegistry.Change.RUNES_CHANGED); }
+    public void addGate() { gateRunes++; markChanged(PortalRegistry.Change.RUNES_CHANGED); }
+    public void addWeakEnhancer() { weakEnhancerRunes++; markChanged(PortalRegistry.Change.RUNES_CHANGED); }
+    public void addStrongEnhancer() { strongEnhancerRunes++; markChanged(PortalRegistry.Change.RUNES_CHANGED); }
+    public void addInfinity() { infinityRunes++; markChanged(PortalRegistry.Change.RUNES_CHANGED); }
+
+    public void removeHaste() { hasteRunes--; markChanged(PortalRegistry.Change.RUNES_CHANGED); }
+    public void removeGate() { gateRunes--; markChanged(PortalRegistry.Change.RUNES_CHANGED); }
+    public void removeWeakEnhancer() { weakEnhancerRunes--; markChanged(PortalRegistry.Change.RUNES_CHANGED); }
+    public void removeStrongEnhancer() { strongEnhancerRunes--; markChanged(PortalRegistry.Change.RUNES_CHANGED); }
+    public void removeInfinity() { infinityRunes--; markChanged(PortalRegistry.Change.RUNES_CHANGED); }
 
-    public void removeHaste() { hasteRunes--; }
-    public void removeGate() { gateRunes--; }
-    public void removeWeakEnhancer() { weakEnhancerRunes--; }
-    public void removeStrongEnhancer() { strongEnhancerRunes--; }
-    public void removeInfinity() { infinityRunes--; }
+    public void setRunes(int hasteRunes, int gateRunes, int weakEnhancerRunes, int strongEnhancerRunes, int infinityRunes) {
+        this.hasteRunes = hasteRunes;
+        this.gateRunes = gateRunes;
+        this.weakEnhancerRunes = weakEnhancerRunes;
+        this.strongEnhancerRunes = strongEnhancerRunes;
+        this.infinityRunes = infinityRunes;
+        markChanged(PortalRegistry.Change.RUNES_CHANGED);
+    }
 
     public boolean hasHaste() {
-        int i = this.hasLinked() ? linked.getHasteRunes() : 0; 
+        Link link = this.link;
+        int i = link != null ? link.hasteRunes() : 0;
         return (hasteRunes + i) > 0;
     }
 
     public boolean hasGate() {
-        int i = this.hasLinked() ? linked.getGateRunes() : 0; 
+        Link link = this.link;
+        int i = link != null ? link.gateRunes() : 0;
         return (gateRunes + i) > 0;
     }
 
     public int getEnhanceTier() {
-        int i = this.hasLinked() ? linked.getInfinityRunes() : 0;
-        int j = this.hasLinked() ? linked.getStrongEnhancerRunes() : 0;
-        int k = this.hasLinked() ? linked.getWeakEnhancerRunes() : 0; 
+        Link link = this.link;
+        int i = link != null ? link.infinityRunes() : 0;
+        int j = link != null ? link.strongEnhancerRunes() : 0;
+        int k = link != null ? link.weakEnhancerRunes() : 0;
         if ((infinityRunes + i) > 0)
             return 3;
         if ((strongEnhancerRunes + j) > 0)
@@ -216,56 +379,56 @@ public class CustomPortal {
     }
 
     public void tryLink(final CustomPortal portal) {
-        if (CPSettings.instance().privatePortals && this.creatorId != null && portal.creatorId != null &&
+        LinkSolver.Rules rules = LinkSolver.Rules.current();
+        if (rules.privatePortals() && this.creatorId != null && portal.creatorId != null &&
                 !this.creatorId.equals(portal.getCreatorId())) return;
         if (portal.getColor() == color && portal.getFrameId().equals(frameId) && portal != this) {
             if (portal.hasLinked()) {
                 if (portal.getLinked() != this)
                     return;
             }
-            if (!CPSettings.instance().unlimitedRange || !CPSettings.instance().alwaysInterdim) {
-                int distance;
-                if (!portal.getDimensionId().equals(dimensionId)) {
-                    if (!this.hasGate() && !portal.hasGate() && !CPSettings.instance().alwaysInterdim)
-                        return;
-                    if (portal.getDimensionId().equals("minecraft:the_nether")) {
-                        int translatedX = portal.getSpawnPos().getX() * 8;
-                        int translatedZ = portal.getSpawnPos().getZ() * 8;
-                        BlockPos translatedSpawnPos = new BlockPos(new Vec3i(
-                                translatedX, portal.getSpawnPos().getY(), translatedZ));
-                        distance = distance(spawnPos, translatedSpawnPos);
-                    } else if (this.dimensionId.equals("minecraft:the_nether")) {
-                        int translatedX = spawnPos.getX() * 8;
-                        int translatedZ = spawnPos.getZ() * 8;
-                        BlockPos translatedSpawnPos = new BlockPos(new Vec3i(
-                                translatedX, spawnPos.getY(), translatedZ));
-                        distance = distance(translatedSpawnPos, portal.getSpawnPos());
-                    } else distance = distance(spawnPos, portal.getSpawnPos());
-                } else distance = distance(spawnPos, portal.getSpawnPos());
-                if (!CPSettings.instance().unlimitedRange) {
-                    int tier = Math.max(portal.getEnhanceTier(), this.getEnhanceTier());
-                    switch (tier) {
-                        case 0 -> {
-                            if (distance > CPSettings.instance().defaultRange)
-                                return;
-                        }
-                        case 1 -> {
-                            if (distance > CPSettings.instance().rangeWithEnhancer)
-                                return;
-                        }
-                        case 2 -> {
-                            if (distance > CPSettings.instance().rangeWithStrongEnhancer)
-                                return;
-                        }
-                    }
-                }
-            }
-            linked = portal;
+            if (!canReach(rules, dimensionId, spawnPos, portal.getDimensionId(), portal.getSpawnPos(),
+                    this.hasGate() || portal.hasGate(), Math.max(portal.getEnhanceTier(), this.getEnhanceTier())))
+                return;
+            setLinked(portal);
             portal.setLinked(this);
         }
     }
 
-    private int distance(BlockPos pos1, BlockPos pos2) {
+    // Whether two portals are in range of each other, given whether either side has a gate and the best enhancer tier of the pair
+    static boolean canReach(LinkSolver.Rules rules, String dimensionId, BlockPos spawnPos, String otherDimensionId,
+                            BlockPos otherSpawnPos, boolean hasGate, int tier) {
+        if (rules.unlimitedRange() && rules.alwaysInterdim())
+            return true;
+        int distance;
+        if (!otherDimensionId.equals(dimensionId)) {
+            if (!hasGate && !rules.alwaysInterdim())
+                return false;
+            if (otherDimensionId.equals("minecraft:the_nether")) {
+                int translatedX = otherSpawnPos.getX() * 8;
+                int translatedZ = otherSpawnPos.getZ() * 8;
+                BlockPos translatedSpawnPos = new BlockPos(new Vec3i(
+                        translatedX, otherSpawnPos.getY(), translatedZ));
+                distance = distance(spawnPos, translatedSpawnPos);
+            } else if (dimensionId.equals("minecraft:the_nether")) {
+                int translatedX = spawnPos.getX() * 8;
+                int translatedZ = spawnPos.getZ() * 8;
+                BlockPos translatedSpawnPos = new BlockPos(new Vec3i(
+                        translatedX, spawnPos.getY(), translatedZ));
+                distance = distance(translatedSpawnPos, otherSpawnPos);
+            } else distance = distance(spawnPos, otherSpawnPos);
+        } else distance = distance(spawnPos, otherSpawnPos);
+        if (rules.unlimitedRange())
+            return true;
+        return switch (tier) {
+            case 0 -> distance <= rules.defaultRange();
+            case 1 -> distance <= rules.rangeWithEnhancer();
+            case 2 -> distance <= rules.rangeWithStrongEnhancer();
+            default -> true;
+        };
+    }
+
+    private static int distance(BlockPos pos1, BlockPos pos2) {
         int x1 = pos1.getX();
         int x2 = pos2.getX();
         int y1 = pos1.getY();
@@ -0,0 +1,204 @@
+package dev.custom.portals.data;
+
+import dev.custom.portals.CustomPortals;
+import dev.custom.portals.config.CPSettings;
+import net.minecraft.block.MapColor;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Links every portal of a registry again, the same way {@link PortalRegistry#refreshPortals()} does, but on a
+ * background thread once there are enough portals for it to hold up the server. The worker reads a copy of everything
+ * linking depends on, taken on the server thread, and hands back only the links that differ. The server thread
+ * applies those if the registry has not changed in the meantime, and otherwise starts over.
+ */
+public class LinkSolver {
+
+    public record Rules(boolean privatePortals, boolean unlimitedRange, boolean alwaysInterdim, int defaultRange,
+                        int rangeWithEnhancer, int rangeWithStrongEnhancer) {
+        public static Rules current() {
+            CPSettings settings = CPSettings.instance();
+            return new Rules(settings.privatePortals, settings.unlimitedRange, settings.alwaysInterdim, settings.defaultRange,
+                    settings.rangeWithEnhancer, settings.rangeWithStrongEnhancer);
+        }
+    }
+
+    // What linking reads of a portal, copied on the server thread
+    private record Input(CustomPortal portal, String frameId, String dimensionId, MapColor color, BlockPos spawnPos,
+                         UUID creatorId, int gateRunes, int weakEnhancerRunes, int strongEnhancerRunes, int infinityRunes,
+                         CustomPortal linked) {}
+
+    private record Group(String frameId, MapColor color) {}
+
+    // Attempts thrown away because the registry changed before they finished, before linking on the server thread instead
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Custom Portals Link Solver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Registries being solved, and those asked to be solved again while they were
+    private static final Set<PortalRegistry> running = Collections.newSetFromMap(new IdentityHashMap<>());
+    private static final Set<PortalRegistry> requested = Collections.newSetFromMap(new IdentityHashMap<>());
+    // Moves on when the server stops, so that results still on their way are dropped
+    private static int generation;
+    // The running server, for settings saved from outside of it
+    private static volatile MinecraftServer runningServer;
+
+    public static void onServerStarted(MinecraftServer server) {
+        runningServer = server;
+        // Saved and replayed portals are not linked as they load, every world shares the overworld's registry by now
+        relinkAll(server, CustomPortals.PORTALS.get(server.getOverworld()).getPortalRegistry());
+    }
+
+    // Range and privacy settings decide which portals link, so saving them links every portal again
+    public static void onConfigSaved() {
+        MinecraftServer server = runningServer;
+        if (server != null)
+            server.execute(() -> relinkAll(server, CustomPortals.PORTALS.get(server.getOverworld()).getPortalRegistry()));
+    }
+
+    /**
+     * Links every portal of the registry again. Must be called on the server thread.
+     */
+    public static void relinkAll(MinecraftServer server, PortalRegistry registry) {
+        int threshold = CPSettings.instance().backgroundLinkThreshold;
+        if (threshold <= 0 || registry.getPortals().size() < threshold) {
+            registry.refreshPortals();
+            CustomPortals.PORTALS.get(server.getOverworld()).syncWithAll(server);
+            return;
+        }
+        if (running.contains(registry))
+            requested.add(registry);
+        else submit(server, registry, 1);
+    }
+
+    public static void clear(MinecraftServer server) {
+        runningServer = null;
+        generation++;
+        running.clear();
+        requested.clear();
+    }
+
+    private static void submit(MinecraftServer server, PortalRegistry registry, int attempt) {
+        int changeCount = registry.getChangeCount();
+        List<Input> inputs = new ArrayList<>();
+        for (CustomPortal portal : registry.getPortals()) {
+            inputs.add(new Input(portal, portal.getFrameId(), portal.getDimensionId(), portal.getColor(), portal.getSpawnPos(),
+                    portal.getCreatorId(), portal.getGateRunes(), portal.getWeakEnhancerRunes(), portal.getStrongEnhancerRunes(),
+                    portal.getInfinityRunes(), portal.getLinked()));
+        }
+        Rules rules = Rules.current();
+        int submitted = generation;
+        running.add(registry);
+        executor.execute(() -> {
+            Map<CustomPortal, CustomPortal> diff;
+            try {
+                diff = solve(inputs, rules);
+            } catch (RuntimeException e) {
+                CustomPortals.LOGGER.error("Failed to link portals in the background", e);
+                diff = null;
+            }
+            Map<CustomPortal, CustomPortal> result = diff;
+            server.execute(() -> commit(server, registry, changeCount, submitted, attempt, result));
+        });
+    }
+
+    private static void commit(MinecraftServer server, PortalRegistry registry, int changeCount, int submitted, int attempt,
+                               Map<CustomPortal, CustomPortal> diff) {
+        if (submitted != generation)
+            return;
+        running.remove(registry);
+        boolean stale = registry.getChangeCount() != changeCount || requested.remove(registry);
+        if (diff == null || (stale && attempt >= MAX_ATTEMPTS)) {
+            registry.refreshPortals();
+        } else if (stale) {
+            submit(server, registry, attempt + 1);
+            return;
+        } else {
+            for (Map.Entry<CustomPortal, CustomPortal> link : diff.entrySet())
+                link.getKey().setLinked(link.getValue());
+        }
+        CustomPortals.PORTALS.get(server.getOverworld()).syncWithAll(server);
+    }
+
+    /**
+     * Replays refreshPortals on the copied state and returns the portals whose link ends up different, mapped to their
+     * new link or null. Portals only ever link within the same frame and color, so only those are tried against each
+     * other, in registry order, which gives the same links as trying every pair.
+     */
+    private static Map<CustomPortal, CustomPortal> solve(List<Input> inputs, Rules rules) {
+        int size = inputs.size();
+        Map<CustomPortal, Integer> indices = new IdentityHashMap<>();
+        for (int i = 0; i < size; i++)
+            indices.put(inputs.get(i).portal(), i);
+        int[] linked = new int[size];
+        Map<Group, List<Integer>> groups = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            Input input = inputs.get(i);
+            linked[i] = input.linked() == null ? -1 : indices.getOrDefault(input.linked(), -1);
+            groups.computeIfAbsent(new Group(input.frameId(), input.color()), g -> new ArrayList<>()).add(i);
+        }
+        for (int i = 0; i < size; i++) {
+            Input input = inputs.get(i);
+            linked[i] = -1;
+            for (int other : groups.get(new Group(input.frameId(), input.color())))
+                tryLink(inputs, linked, rules, i, other);
+        }
+        Map<CustomPortal, CustomPortal> diff = new IdentityHashMap<>();
+        for (int i = 0; i < size; i++) {
+            CustomPortal link = linked[i] < 0 ? null : inputs.get(linked[i]).portal();
+            if (link != inputs.get(i).linked())
+                diff.put(inputs.get(i).portal(), link);
+        }
+        return diff;
+    }
+
+    // Same checks as CustomPortal.tryLink, on the copied state
+    private static void tryLink(List<Input> inputs, int[] linked, Rules rules, int portal, int other) {
+        Input a = inputs.get(portal);
+        Input b = inputs.get(other);
+        if (rules.privatePortals() && a.creatorId() != null && b.creatorId() != null && !a.creatorId().equals(b.creatorId()))
+            return;
+        if (portal == other || (linked[other] >= 0 && linked[other] != portal))
+            return;
+        if (!CustomPortal.canReach(rules, a.dimensionId(), a.spawnPos(), b.dimensionId(), b.spawnPos(),
+                hasGate(inputs, linked, portal) || hasGate(inputs, linked, other),
+                Math.max(getEnhanceTier(inputs, linked, other), getEnhanceTier(inputs, linked, portal))))
+            return;
+        linked[portal] = other;
+        linked[other] = portal;
+    }
+
+    private static boolean hasGate(List<Input> inputs, int[] linked, int portal) {
+        int gateRunes = inputs.get(portal).gateRunes();
+        if (linked[portal] >= 0)
+            gateRunes += inputs.get(linked[portal]).gateRunes();
+        return gateRunes > 0;
+    }
+
+    private static int getEnhanceTier(List<Input> inputs, int[] linked, int portal) {
+        Input input = inputs.get(portal);
+        Input link = linked[portal] >= 0 ? inputs.get(linked[portal]) : null;
+        if (input.infinityRunes() + (link == null ? 0 : link.infinityRunes()) > 0)
+            return 3;
+        if (input.strongEnhancerRunes() + (link == null ? 0 : link.strongEnhancerRunes()) > 0)
+            return 2;
+        if (input.weakEnhancerRunes() + (link == null ? 0 : link.weakEnhancerRunes()) > 0)
+            return 1;
+        return 0;
+    }
+}
@@ -0,0 +1,211 @@
+package dev.custom.portals.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import com.mojang.datafixers.util.Either;
+import com.mojang.serialization.Codec;
+import com.mojang.serialization.DataResult;
+import com.mojang.serialization.codecs.RecordCodecBuilder;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Vec3i;
+
+/**
+ * A portal's blocks. They are saved as the origin and size of their bounding box plus a bit per block of that box,
+ * which for the flat, mostly filled shapes portals have is a fraction of the size of one position per block. Shapes
+ * too sparse for that still fall back to the plain list, and the plain list written by older versions is read as
+ * before.
+ *
+ * <p>Loaded bitmasks are only expanded into positions the first time the blocks are asked for, so portals in parts
+ * of the world nobody visits cost little more than their saved form. Until then the anchor and bounds are worked out
+ * from the mask directly.
+ */
+class PortalBlockSet {
+
+    // Boxes with more cells than this per block are saved as a plain list, where the mask would not be smaller
+    private static final int MAX_CELLS_PER_BLOCK = 64;
+
+    private record Compact(BlockPos origin, Vec3i size, long[] mask, int first) {
+    }
+
+    private static final Codec<Compact> COMPACT_CODEC = RecordCodecBuilder.<Compact>create(instance -> instance.group(
+        BlockPos.CODEC.fieldOf("origin").forGetter(Compact::origin),
+        Vec3i.CODEC.fieldOf("size").forGetter(Compact::size),
+        Codec.LONG_STREAM.xmap(LongStream::toArray, Arrays::stream).fieldOf("mask").forGetter(Compact::mask),
+        Codec.INT.fieldOf("first").forGetter(Compact::first)
+    ).apply(instance, Compact::new)).validate(PortalBlockSet::validate);
+
+    public static final Codec<PortalBlockSet> CODEC = Codec.either(COMPACT_CODEC, BlockPos.CODEC.listOf())
+        .xmap(either -> either.map(PortalBlockSet::new, PortalBlockSet::new), PortalBlockSet::toSaved);
+
+    // At least one of these is set. The mask is also built from a plain list the first time a block is looked up
+    private Compact compact;
+    private List<BlockPos> blocks;
+    // Edge flags by index in the bounding box, worked out from the mask the first time they are asked for
+    private byte[] edgeFlags;
+
+    private PortalBlockSet(Compact compact) {
+        this.compact = compact;
+    }
+
+    PortalBlockSet(List<BlockPos> blocks) {
+        this.blocks = blocks;
+    }
+
+    public List<BlockPos> get() {
+        if (blocks == null)
+            blocks = expand(compact);
+        return blocks;
+    }
+
+    public boolean isExpanded() {
+        return blocks != null;
+    }
+
+    /**
+     * Where the block is in the bounding box, or -1 if it is not one of the set's blocks. Works from the mask, so
+     * this never expands it.
+     */
+    public int indexOf(BlockPos pos) {
+        if (compact == null)
+            compact = encode(blocks);
+        BlockPos origin = compact.origin();
+        Vec3i size = compact.size();
+        if (pos.getX() < origin.getX() || pos.getY() < origin.getY() || pos.getZ() < origin.getZ()
+                || pos.getX() >= origin.getX() + size.getX() || pos.getY() >= origin.getY() + size.getY() || pos.getZ() >= origin.getZ() + size.getZ())
+            return -1;
+        int i = index(origin, size, pos);
+        return isSet(compact.mask(), i) ? i : -1;
+    }
+
+    // The CustomPortal.EDGE_ flags of a block, 0 for positions that are not in the set
+    public byte getEdgeFlags(BlockPos pos) {
+        int i = indexOf(pos);
+        if (i < 0)
+            return 0;
+        if (edgeFlags == null)
+            edgeFlags = edgeFlags(compact);
+        return edgeFlags[i];
+    }
+
+    public BlockPos getAnchor() {
+        return blocks != null ? blocks.get(0) : position(compact.origin(), compact.size(), compact.first());
+    }
+
+    public BlockPos getMin() {
+        return blocks != null ? min(blocks) : compact.origin();
+    }
+
+    public BlockPos getMax() {
+        return blocks != null ? max(blocks) : compact.origin().add(compact.size()).add(-1, -1, -1);
+    }
+
+    private Either<Compact, List<BlockPos>> toSaved() {
+        // A mask built only for lookups is not saved if the list is smaller
+        if (blocks != null && !isDense(blocks))
+            return Either.right(blocks);
+        if (compact == null)
+            compact = encode(blocks);
+        return Either.left(compact);
+    }
+
+    private static boolean isDense(List<BlockPos> blocks) {
+        if (blocks.isEmpty())
+            return false;
+        BlockPos min = min(blocks);
+        BlockPos max = max(blocks);
+        long cells = (long)(max.getX() - min.getX() + 1) * (max.getY() - min.getY() + 1) * (max.getZ() - min.getZ() + 1);
+        return cells <= (long)blocks.size() * MAX_CELLS_PER_BLOCK;
+    }
+
+    private static Compact encode(List<BlockPos> blocks) {
+        BlockPos origin = min(blocks);
+        BlockPos max = max(blocks);
+        Vec3i size = new Vec3i(max.getX() - origin.getX() + 1, max.getY() - origin.getY() + 1, max.getZ() - origin.getZ() + 1);
+        long[] mask = new long[(size.getX() * size.getY() * size.getZ() + 63) >> 6];
+        for (BlockPos pos : blocks) {
+            int i = index(origin, size, pos);
+            mask[i >> 6] |= 1L << (i & 63);
+        }
+        // The first block is the portal's anchor, so it has to come back first
+        return new Compact(origin, size, mask, index(origin, size, blocks.get(0)));
+    }
+
+    private static DataResult<Compact> validate(Compact compact) {
+        Vec3i size = compact.size();
+        long cells = (long)size.getX() * size.getY() * size.getZ();
+        if (size.getX() <= 0 || size.getY() <= 0 || size.getZ() <= 0 || compact.mask().length != (cells + 63) >> 6)
+            return DataResult.error(() -> "Portal block mask does not match its size " + size);
+        if (compact.first() < 0 || compact.first() >= cells || (compact.mask()[compact.first() >> 6] & 1L << (compact.first() & 63)) == 0)
+            return DataResult.error(() -> "Portal block mask is missing its first block");
+        return DataResult.success(compact);
+    }
+
+    private static List<BlockPos> expand(Compact compact) {
+        Vec3i size = compact.size();
+        int cells = size.getX() * size.getY() * size.getZ();
+        List<BlockPos> blocks = new ArrayList<>();
+        blocks.add(position(compact.origin(), size, compact.first()));
+        for (int i = 0; i < cells; i++) {
+            if (i != compact.first() && (compact.mask()[i >> 6] & 1L << (i & 63)) != 0)
+                blocks.add(position(compact.origin(), size, i));
+        }
+        return blocks;
+    }
+
+    private static byte[] edgeFlags(Compact compact) {
+        Vec3i size = compact.size();
+        long[] mask = compact.mask();
+        // Neighbours along x are next to each other in the mask, neighbours along y a whole layer apart
+        int layer = size.getX() * size.getZ();
+        byte[] flags = new byte[layer * size.getY()];
+        for (int i = 0; i < flags.length; i++) {
+            if (!isSet(mask, i))
+                continue;
+            int x = i % size.getX();
+            int y = i / layer;
+            if ((x == 0 || !isSet(mask, i - 1)) && (x == size.getX() - 1 || !isSet(mask, i + 1)))
+                flags[i] |= CustomPortal.EDGE_WEST_EAST;
+            if ((y == 0 || !isSet(mask, i - layer)) && (y == size.getY() - 1 || !isSet(mask, i + layer)))
+                flags[i] |= CustomPortal.EDGE_UP_DOWN;
+        }
+        return flags;
+    }
+
+    private static boolean isSet(long[] mask, int index) {
+        return (mask[index >> 6] & 1L << (index & 63)) != 0;
+    }
+
+    private static int index(BlockPos origin, Vec3i size, BlockPos pos) {
+        return ((pos.getY() - origin.getY()) * size.getZ() + pos.getZ() - origin.getZ()) * size.getX() + pos.getX() - origin.getX();
+    }
+
+    private static BlockPos position(BlockPos origin, Vec3i size, int index) {
+        int x = index % size.getX();
+        int z = index / size.getX() % size.getZ();
+        int y = index / size.getX() / size.getZ();
+        return origin.add(x, y, z);
+    }
+
+    private static BlockPos min(List<BlockPos> blocks) {
+        int x = Integer.MAX_VALUE, y = Integer.MAX_VALUE, z = Integer.MAX_VALUE;
+        for (BlockPos pos : blocks) {
+            x = Math.min(x, pos.getX());
+            y = Math.min(y, pos.getY());
+            z = Math.min(z, pos.getZ());
+        }
+        return new BlockPos(x, y, z);
+    }
+
+    private static BlockPos max(List<BlockPos> blocks) {
+        int x = Integer.MIN_VALUE, y = Integer.MIN_VALUE, z = Integer.MIN_VALUE;
+        for (BlockPos pos : blocks) {
+            x = Math.max(x, pos.getX());
+            y = Math.max(y, pos.getY());
+            z = Math.max(z, pos.getZ());
+        }
+        return new BlockPos(x, y, z);
+    }
+}
@@ -3,9 +3,9 @@ package dev.custom.portals.data;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.storage.ReadView;
 import net.minecraft.storage.WriteView;
-import net.minecraft.util.math.BlockPos;
 
-public class PortalComponent implements BasePortalComponent {
+// Position lookups are left to the subclass, which knows the dimension they are in
+public abstract class PortalComponent implements BasePortalComponent {
 
     private PortalRegistry portalRegistry;
 
@@ -16,11 +16,6 @@ public class PortalComponent implements BasePortalComponent {
     @Override
     public PortalRegistry getPortalRegistry() { return portalRegistry; }
 
-    @Override
-    public CustomPortal getPortalFromPos(BlockPos pos) {
-        return portalRegistry.getPortalFromPos(pos);
-    }
-
     @Override
     public void setPortalRegistry(PortalRegistry portalRegistry) { this.portalRegistry = portalRegistry; }
 
@@ -55,14 +50,15 @@ public class PortalComponent implements BasePortalComponent {
         if (portals.isEmpty()) {
             return;
         }
+        // Linked all at once when the server has started, see LinkSolver
         for (CustomPortal portal : portals.get()) {
-            registerPortal(portal);
+            portalRegistry.add(portal);
         }
     }
 
     @Override
     public void writeData(WriteView writeView) {
-        writeView.put("portals", CustomPortal.CODEC.listOf(), portalRegistry.getPortals());
+        writeView.put("portals", CustomPortal.SAVE_CODEC.listOf(), portalRegistry.getPortals());
     }
     
     @Override
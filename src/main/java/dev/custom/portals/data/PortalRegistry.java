@@ -1,58 +1,343 @@
 package dev.custom.portals.data;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
 
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 
+/**
+ * The portals of a server or client, indexed per dimension. Changes lock only the dimension of the portal they touch.
+ * Position lookups, which run for every portal block an entity touches, read a concurrent map without locking, and
+ * chunk lookups take the dimension's lock, so both are safe from any thread.
+ *
+ * <p>Any other thread reads through {@link #getSnapshot()}, an immutable copy of which portals are registered. The
+ * side changing the registry publishes a new copy once it is done with a batch of changes, so reading it is a single
+ * volatile read that never waits on a writer. Only membership is frozen, the portals in it are the live objects.
+ */
 public class PortalRegistry {
 
-    private List<CustomPortal> portals;
-    private Map<BlockPos, CustomPortal> portalPositions;
+    public enum Change { ADDED, REMOVED, LINK_CHANGED, RUNES_CHANGED, SPAWN_CHANGED }
+
+    public record Snapshot(int modCount, List<CustomPortal> portals, Map<String, List<CustomPortal>> byDimension) {
+        public List<CustomPortal> getPortals(String dimensionId) {
+            return byDimension.getOrDefault(dimensionId, List.of());
+        }
+    }
+
+    private static class Dimension {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final List<CustomPortal> portals = new ArrayList<CustomPortal>();
+        private final Map<BlockPos, CustomPortal> positions = new ConcurrentHashMap<BlockPos, CustomPortal>();
+        // Portals by every chunk they overlap
+        private final Map<Long, List<CustomPortal>> chunks = new HashMap<Long, List<CustomPortal>>();
+        // Loaded portals whose blocks are not in positions yet, by every chunk they overlap
+        private final Map<Long, List<CustomPortal>> pending = new HashMap<Long, List<CustomPortal>>();
+    }
+
+    // Bumped whenever any registry gains or loses portals, so lookups cached elsewhere know when to redo them
+    private static final AtomicInteger version = new AtomicInteger();
+
+    private final Map<String, Dimension> dimensions;
+    // Bumped whenever this registry gains or loses portals, the snapshot is stale once it moves past it
+    private final AtomicInteger modCount;
+    // Bumped on any change to this registry or its portals, including links and runes
+    private final AtomicInteger changeCount;
+    private final Object snapshotLock;
+    private volatile Snapshot snapshot;
+
+    // Only the server side registry records changes, they are shipped to clients as deltas
+    private volatile boolean trackChanges;
+    private final Map<CustomPortal, EnumSet<Change>> changes;
 
     public PortalRegistry() {
-        portals = new ArrayList<CustomPortal>();
-        portalPositions = new HashMap<BlockPos, CustomPortal>();
+        dimensions = new ConcurrentHashMap<String, Dimension>();
+        modCount = new AtomicInteger();
+        changeCount = new AtomicInteger();
+        snapshotLock = new Object();
+        snapshot = new Snapshot(0, List.of(), Map.of());
+        changes = new LinkedHashMap<CustomPortal, EnumSet<Change>>();
     }
-    
+
     public void register(CustomPortal portal) {
         tryWithAll(portal);
-        for (BlockPos blockPos : portal.getPortalBlocks()) {
-            portalPositions.put(blockPos, portal);
-        }
-        portals.add(portal);
+        add(portal);
     }
 
     public void unregister(CustomPortal portal) {
-        portals.remove(portal);
+        remove(portal);
         if (portal.hasLinked()) {
             tryWithAll(portal.getLinked());
         }
+    }
+
+    /**
+     * Adds a portal without trying to link it. Used directly when applying synced data, where links come from the server.
+     */
+    public void add(CustomPortal portal) {
+        Dimension dimension = dimensions.computeIfAbsent(portal.getDimensionId(), d -> new Dimension());
+        dimension.lock.lock();
+        try {
+            // Portals straight from the save only get their blocks expanded once a chunk they are in loads
+            if (portal.hasPortalBlocks())
+                putPositions(dimension, portal);
+            else
+                forEachChunk(portal, chunkPos -> dimension.pending.computeIfAbsent(chunkPos, c -> new ArrayList<CustomPortal>()).add(portal));
+            dimension.portals.add(portal);
+            forEachChunk(portal, chunkPos -> dimension.chunks.computeIfAbsent(chunkPos, c -> new ArrayList<CustomPortal>()).add(portal));
+            modCount.incrementAndGet();
+        } finally {
+            dimension.lock.unlock();
+        }
+        portal.setOwner(this);
+        version.incrementAndGet();
+        markChanged(portal, Change.ADDED);
+    }
+
+    public void remove(CustomPortal portal) {
+        Dimension dimension = dimensions.get(portal.getDimensionId());
+        if (dimension != null) {
+            dimension.lock.lock();
+            try {
+                dimension.portals.remove(portal);
+                if (portal.hasPortalBlocks()) {
+                    for (BlockPos blockPos : portal.getPortalBlocks()) {
+                        dimension.positions.remove(blockPos, portal);
+                    }
+                }
+                removePending(dimension, portal);
+                forEachChunk(portal, chunkPos -> {
+                    List<CustomPortal> inChunk = dimension.chunks.get(chunkPos);
+                    if (inChunk != null && inChunk.remove(portal) && inChunk.isEmpty())
+                        dimension.chunks.remove(chunkPos);
+                });
+                modCount.incrementAndGet();
+            } finally {
+                dimension.lock.unlock();
+            }
+        }
+        version.incrementAndGet();
+        markChanged(portal, Change.REMOVED);
+        portal.setOwner(null);
+    }
+
+    /**
+     * Puts the blocks of the portals in a chunk that just loaded into the position lookup.
+     */
+    public void loadChunk(String dimensionId, int chunkX, int chunkZ) {
+        Dimension dimension = dimensions.get(dimensionId);
+        if (dimension == null)
+            return;
+        dimension.lock.lock();
+        try {
+            List<CustomPortal> pending = dimension.pending.get(ChunkPos.toLong(chunkX, chunkZ));
+            if (pending == null)
+                return;
+            for (CustomPortal portal : List.copyOf(pending)) {
+                removePending(dimension, portal);
+                putPositions(dimension, portal);
+            }
+        } finally {
+            dimension.lock.unlock();
+        }
+    }
+
+    /**
+     * Loads the pending portals of every chunk in the dimension that passes the check, for chunks that were already
+     * loaded when this registry took over the dimension.
+     */
+    public void loadChunks(String dimensionId, LongPredicate isLoaded) {
+        Dimension dimension = dimensions.get(dimensionId);
+        if (dimension == null)
+            return;
+        dimension.lock.lock();
+        try {
+            for (long chunkPos : List.copyOf(dimension.pending.keySet())) {
+                if (isLoaded.test(chunkPos))
+                    loadChunk(dimensionId, ChunkPos.getPackedX(chunkPos), ChunkPos.getPackedZ(chunkPos));
+            }
+        } finally {
+            dimension.lock.unlock();
+        }
+    }
+
+    private static void putPositions(Dimension dimension, CustomPortal portal) {
         for (BlockPos blockPos : portal.getPortalBlocks()) {
-            portalPositions.remove(blockPos);
+            dimension.positions.put(blockPos, portal);
+        }
+    }
+
+    private static void removePending(Dimension dimension, CustomPortal portal) {
+        if (dimension.pending.isEmpty())
+            return;
+        forEachChunk(portal, chunkPos -> {
+            List<CustomPortal> inChunk = dimension.pending.get(chunkPos);
+            if (inChunk != null && inChunk.remove(portal) && inChunk.isEmpty())
+                dimension.pending.remove(chunkPos);
+        });
+    }
+
+    /**
+     * Runs the action for every chunk the portal's bounding box overlaps, as packed chunk positions.
+     */
+    public static void forEachChunk(CustomPortal portal, LongConsumer action) {
+        BlockPos min = portal.getMinPos();
+        BlockPos max = portal.getMaxPos();
+        for (int x = min.getX() >> 4; x <= max.getX() >> 4; x++) {
+            for (int z = min.getZ() >> 4; z <= max.getZ() >> 4; z++) {
+                action.accept(ChunkPos.toLong(x, z));
+            }
         }
     }
 
     public void tryWithAll(CustomPortal portal) {
         portal.setLinked(null);
-        for (CustomPortal p : portals) {
+        for (CustomPortal p : getPortals()) {
             portal.tryLink(p);
         }
     }
 
     public void refreshPortals() {
-        for (CustomPortal portal : portals) {
+        for (CustomPortal portal : getPortals()) {
             tryWithAll(portal);
         }
     }
 
-    public List<CustomPortal> getPortals() { return portals; }
+    /**
+     * Returns the registered portals, publishing any changes not published yet first. For the side changing the
+     * registry, which has to see its own changes; other threads use {@link #getSnapshot()}.
+     */
+    public List<CustomPortal> getPortals() { return publishSnapshot().portals(); }
+
+    /**
+     * Returns the registered portals as of the last published batch of changes. Safe to call from any thread.
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Publishes a new snapshot if portals were added or removed since the last one. Called by the side changing the
+     * registry once it is done with a batch of changes, not while changing the registry from a callback of it.
+     */
+    public Snapshot publishSnapshot() {
+        synchronized (snapshotLock) {
+            Snapshot current = snapshot;
+            // Read before copying, so that changes made meanwhile leave the snapshot stale and get published next time
+            int published = modCount.get();
+            if (current.modCount() == published)
+                return current;
+            List<String> dimensionIds = new ArrayList<String>(dimensions.keySet());
+            dimensionIds.sort(null);
+            List<CustomPortal> portals = new ArrayList<CustomPortal>();
+            Map<String, List<CustomPortal>> byDimension = new HashMap<String, List<CustomPortal>>();
+            for (String dimensionId : dimensionIds) {
+                Dimension dimension = dimensions.get(dimensionId);
+                List<CustomPortal> inDimension;
+                dimension.lock.lock();
+                try {
+                    inDimension = List.copyOf(dimension.portals);
+                } finally {
+                    dimension.lock.unlock();
+                }
+                portals.addAll(inDimension);
+                if (!inDimension.isEmpty())
+                    byDimension.put(dimensionId, inDimension);
+            }
+            current = new Snapshot(published, List.copyOf(portals), Map.copyOf(byDimension));
+            snapshot = current;
+            return current;
+        }
+    }
+
+    public static int getVersion() { return version.get(); }
+
+    public int getChangeCount() { return changeCount.get(); }
 
-    //public void clear() { portals.clear(); }
+    public void clear() {
+        for (Dimension dimension : dimensions.values()) {
+            dimension.lock.lock();
+            try {
+                dimension.portals.clear();
+                dimension.positions.clear();
+                dimension.chunks.clear();
+                dimension.pending.clear();
+                modCount.incrementAndGet();
+            } finally {
+                dimension.lock.unlock();
+            }
+        }
+        synchronized (changes) {
+            changes.clear();
+        }
+        changeCount.incrementAndGet();
+        version.incrementAndGet();
+    }
+
+    public CustomPortal getPortalFromPos(String dimensionId, BlockPos pos) {
+        Dimension dimension = dimensions.get(dimensionId);
+        return dimension == null ? null : dimension.positions.get(pos);
+    }
 
-    public CustomPortal getPortalFromPos(BlockPos pos) {
-        return portalPositions.get(pos);
+    public List<CustomPortal> getPortalsInChunk(String dimensionId, int chunkX, int chunkZ) {
+        Dimension dimension = dimensions.get(dimensionId);
+        if (dimension == null)
+            return List.of();
+        dimension.lock.lock();
+        try {
+            return List.copyOf(dimension.chunks.getOrDefault(ChunkPos.toLong(chunkX, chunkZ), List.of()));
+        } finally {
+            dimension.lock.unlock();
+        }
+    }
+
+    public CustomPortal getPortal(String dimensionId, BlockPos anchor) {
+        CustomPortal portal = getPortalFromPos(dimensionId, anchor);
+        if (portal != null)
+            return portal;
+        // Portals whose blocks are not expanded yet are only in the chunk index, which has them in their anchor's chunk too
+        for (CustomPortal p : getPortalsInChunk(dimensionId, anchor.getX() >> 4, anchor.getZ() >> 4)) {
+            if (p.getAnchor().equals(anchor))
+                return p;
+        }
+        return null;
+    }
+
+    public void setTrackChanges(boolean trackChanges) {
+        this.trackChanges = trackChanges;
+        synchronized (changes) {
+            changes.clear();
+        }
+    }
+
+    public void markChanged(CustomPortal portal, Change change) {
+        changeCount.incrementAndGet();
+        if (!trackChanges)
+            return;
+        synchronized (changes) {
+            changes.computeIfAbsent(portal, p -> EnumSet.noneOf(Change.class)).add(change);
+        }
+    }
+
+    /**
+     * Returns the changes recorded since the last call, in the order the portals were first changed.
+     */
+    public Map<CustomPortal, EnumSet<Change>> drainChanges() {
+        synchronized (changes) {
+            if (changes.isEmpty())
+                return Map.of();
+            Map<CustomPortal, EnumSet<Change>> drained = new LinkedHashMap<CustomPortal, EnumSet<Change>>(changes);
+            changes.clear();
+            return drained;
+        }
     }
 }
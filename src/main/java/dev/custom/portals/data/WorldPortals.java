@@ -1,23 +1,153 @@
 package dev.custom.portals.data;
 
 import dev.custom.portals.CustomPortals;
+import dev.custom.portals.util.PortalInterest;
+import dev.custom.portals.util.PortalJournal;
+import dev.custom.portals.util.PortalSyncPayload;
+import dev.custom.portals.util.PortalTasks;
 import org.ladysnake.cca.api.v3.component.sync.AutoSyncedComponent;
+import net.minecraft.network.RegistryByteBuf;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ServerWorld;
+import net.minecraft.storage.ReadView;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
 
+import java.util.EnumSet;
+import java.util.Map;
+
 public class WorldPortals extends PortalComponent implements AutoSyncedComponent {
     private World world;
 
-    public WorldPortals(World world) { this.world = world; }
+    // Sequence of the last delta applied on the client, -1 while waiting for a full sync
+    private int clientSequence = -1;
+
+    public WorldPortals(World world) {
+        this.world = world;
+        this.getPortalRegistry().setTrackChanges(!world.isClient());
+    }
 
     public World getWorld() { return world; }
 
+    @Override
+    public CustomPortal getPortalFromPos(BlockPos pos) {
+        // The registry is shared by every world, so the lookup is narrowed to this one
+        return this.getPortalRegistry().getPortalFromPos(world.getRegistryKey().getValue().toString(), pos);
+    }
+
+    @Override
+    public void readData(ReadView readView) {
+        super.readData(readView);
+        // Loaded portals reach clients through the full sync on join, not as deltas
+        this.getPortalRegistry().drainChanges();
+    }
+
+    /**
+     * Makes every world use the overworld's registry. Done once when the server has started, so that worlds never swap
+     * registries while they may be ticking on different threads.
+     */
+    public static void shareRegistry(MinecraftServer server) {
+        PortalRegistry registry = CustomPortals.PORTALS.get(server.getOverworld()).getPortalRegistry();
+        for (ServerWorld serverWorld : server.getWorlds()) {
+            CustomPortals.PORTALS.get(serverWorld).setPortalRegistry(registry);
+            registry.loadChunks(serverWorld.getRegistryKey().getValue().toString(), chunkPos ->
+                    serverWorld.getChunkManager().isChunkLoaded(ChunkPos.getPackedX(chunkPos), ChunkPos.getPackedZ(chunkPos)));
+        }
+        registry.publishSnapshot();
+    }
+
+    /*
+     * On the server, a world's thread only changes this world's portals directly. Linking and syncing reach into other
+     * worlds, so they go through PortalTasks and run on the server thread. Registering and unregistering are split the
+     * same way: the portal is added or removed right away, so that lookups in this world see it immediately, and the
+     * linking that follows is handed off.
+     */
+
+    @Override
+    public void registerPortal(CustomPortal portal) {
+        if (!(world instanceof ServerWorld serverWorld)) {
+            super.registerPortal(portal);
+            return;
+        }
+        this.getPortalRegistry().add(portal);
+        PortalTasks.run(serverWorld.getServer(), () -> {
+            if (portal.isRegistered())
+                this.getPortalRegistry().tryWithAll(portal);
+        });
+    }
+
+    @Override
+    public void unregisterPortal(CustomPortal portal) {
+        if (!(world instanceof ServerWorld serverWorld)) {
+            super.unregisterPortal(portal);
+            return;
+        }
+        CustomPortal linked = portal.getLinked();
+        this.getPortalRegistry().remove(portal);
+        if (linked != null) {
+            PortalTasks.run(serverWorld.getServer(), () -> {
+                if (linked.isRegistered())
+                    this.getPortalRegistry().tryWithAll(linked);
+            });
+        }
+    }
+
+    @Override
+    public void tryWithAll(CustomPortal portal) {
+        if (world instanceof ServerWorld serverWorld)
+            PortalTasks.run(serverWorld.getServer(), () -> super.tryWithAll(portal));
+        else super.tryWithAll(portal);
+    }
+
+    @Override
+    public void refreshPortals() {
+        if (world instanceof ServerWorld serverWorld)
+            PortalTasks.run(serverWorld.getServer(), super::refreshPortals);
+        else super.refreshPortals();
+    }
+
     @Override
     public void syncWithAll(MinecraftServer server) {
-        Iterable<ServerWorld> worlds = server.getWorlds();
-        for (ServerWorld serverWorld : worlds) {
-            CustomPortals.PORTALS.get(serverWorld).setPortalRegistry(this.getPortalRegistry());
+        PortalTasks.run(server, () -> {
+            // Every batch of changes on the server ends here, so this is where readers on other threads get to see it
+            this.getPortalRegistry().publishSnapshot();
+            Map<CustomPortal, EnumSet<PortalRegistry.Change>> changes = this.getPortalRegistry().drainChanges();
+            if (!changes.isEmpty()) {
+                PortalJournal.append(server, changes);
+                PortalInterest.onChanges(server, this.getPortalRegistry(), changes);
+            }
+        });
+    }
+
+    @Override
+    public void writeSyncPacket(RegistryByteBuf buf, ServerPlayerEntity recipient) {
+        PortalInterest.fullSync(recipient, this.getPortalRegistry()).write(buf);
+    }
+
+    @Override
+    public void applySyncPacket(RegistryByteBuf buf) {
+        receiveSync(new PortalSyncPayload(buf));
+    }
+
+    /**
+     * Applies a sync payload on the client. Returns false if a delta was missed, or arrived before any full sync, in
+     * which case the client should ask the server for a full sync.
+     */
+    public boolean receiveSync(PortalSyncPayload payload) {
+        if (!payload.full()) {
+            // Nothing guarantees a full sync is on its way, so a delta without a base asks for one
+            if (clientSequence < 0)
+                return false;
+            if (payload.sequence() != clientSequence + 1) {
+                clientSequence = -1;
+                return false;
+            }
         }
+        payload.applyTo(this.getPortalRegistry());
+        this.getPortalRegistry().publishSnapshot();
+        clientSequence = payload.sequence();
+        return true;
     }
 }
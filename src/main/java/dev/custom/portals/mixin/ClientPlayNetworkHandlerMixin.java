@@ -0,0 +1,19 @@
+package dev.custom.portals.mixin;
+
+import dev.custom.portals.util.PortalPrediction;
+import net.minecraft.client.network.ClientPlayNetworkHandler;
+import net.minecraft.network.packet.s2c.play.PlayerPositionLookS2CPacket;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(ClientPlayNetworkHandler.class)
+public abstract class ClientPlayNetworkHandlerMixin {
+
+    // The server's position is authoritative, so whatever was predicted is settled once it arrives
+    @Inject(method = "onPlayerPositionLook", at = @At("TAIL"))
+    private void onPlayerPositionLook(PlayerPositionLookS2CPacket packet, CallbackInfo ci) {
+        PortalPrediction.reconcile();
+    }
+}
@@ -22,6 +22,7 @@ import net.minecraft.client.world.ClientWorld;
 import net.minecraft.sound.SoundEvents;
 
 import dev.custom.portals.util.EntityMixinAccess;
+import dev.custom.portals.util.PortalPrediction;
 
 @Mixin(ClientPlayerEntity.class)
 public abstract class ClientPlayerEntityMixin extends AbstractClientPlayerEntity {
@@ -37,8 +38,16 @@ public abstract class ClientPlayerEntityMixin extends AbstractClientPlayerEntity
         super(clientWorld, clientPlayNetworkHandler.getProfile());
     }
 
+    // The server has not confirmed a predicted teleport yet, so it must not see movement from the predicted spot
+    @Inject(method = "sendMovementPackets", at = @At("HEAD"), cancellable = true)
+    private void sendMovementPackets(CallbackInfo ci) {
+        if (PortalPrediction.isPending())
+            ci.cancel();
+    }
+
     @Inject(method = "tickNausea", at = @At("HEAD"), cancellable = true)
     private void tickNausea(CallbackInfo ci) {
+        PortalPrediction.tick((ClientPlayerEntity)(Object)this);
         CustomPortal portal = ((EntityMixinAccess)this).getDestPortal();
         float f = 0.0F;
         if(((EntityMixinAccess)this).isInCustomPortal() && portal != null && this.portalManager != null) {
@@ -55,6 +64,7 @@ public abstract class ClientPlayerEntityMixin extends AbstractClientPlayerEntity
                 this.client.getSoundManager().play(PositionedSoundInstance.ambient(SoundEvents.BLOCK_PORTAL_TRIGGER, this.random.nextFloat() * 0.4F + 0.8F, 0.25F));
             }
 
+            PortalPrediction.tickInPortal((ClientPlayerEntity)(Object)this, portal);
             f = 0.0125F;
             this.portalManager.setInPortal(false);
             ((EntityMixinAccess)this).notInCustomPortal();
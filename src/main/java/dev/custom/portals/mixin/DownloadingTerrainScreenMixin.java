@@ -1,8 +1,6 @@
 package dev.custom.portals.mixin;
 
-import dev.custom.portals.blocks.PortalBlock;
 import dev.custom.portals.util.*;
-import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
 import net.minecraft.client.gl.RenderPipelines;
 import net.minecraft.client.gui.DrawContext;
 import net.minecraft.client.gui.screen.DownloadingTerrainScreen;
@@ -39,21 +37,21 @@ public abstract class DownloadingTerrainScreenMixin extends Screen {
 
     @Inject(method = "renderBackground", at = @At("HEAD"), cancellable = true)
     public void renderBackground(DrawContext drawContext, int i, int j, float f, CallbackInfo ci) {
-        if (ClientUtil.transitionBackgroundSpriteModel != null) {
+        if (ClientUtil.transitionColor != 0) {
             ClientUtil.isTransitioning = true;
             if (!packetSent) {
-                ClientPlayNetworking.send(new ScreenTransitionPayload(true));
+                ClientUtil.sendTransitionAck(PortalTransitionPayload.State.SCREEN_OPENED);
                 packetSent = true;
             }
-            drawContext.drawSpriteStretched(RenderPipelines.GUI_OPAQUE_TEX_BG, this.client.getBlockRenderManager().getModels().getModelParticleSprite(ClientUtil.transitionBackgroundSpriteModel.getDefaultState().with(PortalBlock.LIT, true)), 0, 0, drawContext.getScaledWindowWidth(), drawContext.getScaledWindowHeight());
+            drawContext.drawSpriteStretched(RenderPipelines.GUI_OPAQUE_TEX_BG, PortalSpriteCache.get(ClientUtil.transitionColor), 0, 0, drawContext.getScaledWindowWidth(), drawContext.getScaledWindowHeight());
             ci.cancel();
         }
     }
     @Inject(method = "close", at = @At("HEAD"))
     public void close(CallbackInfo ci) {
         ClientUtil.isTransitioning = false;
-        ClientPlayNetworking.send(new ScreenTransitionPayload(false));
-        ClientUtil.transitionBackgroundSpriteModel = null;
+        ClientUtil.sendTransitionAck(PortalTransitionPayload.State.SCREEN_CLOSED);
+        ClientUtil.transitionColor = 0;
         packetSent = false;
     }
 }
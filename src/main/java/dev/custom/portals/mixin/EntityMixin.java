@@ -1,9 +1,11 @@
 package dev.custom.portals.mixin;
 
 import dev.custom.portals.CustomPortals;
+import dev.custom.portals.blocks.PortalBlock;
 import dev.custom.portals.config.CPSettings;
 import dev.custom.portals.data.CustomPortal;
-import dev.custom.portals.util.DrawSpritePayload;
+import dev.custom.portals.data.PortalRegistry;
+import dev.custom.portals.util.PortalTransitionPayload;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
 import net.minecraft.block.Portal;
 import net.minecraft.entity.effect.StatusEffectInstance;
@@ -36,18 +38,43 @@ import java.util.Set;
 @Mixin(Entity.class)
 public abstract class EntityMixin implements EntityMixinAccess {
 
+    @Unique
+    private static final int TRANSITION_TIMEOUT_TICKS = 600;
     @Unique
     private int portalColor;
     @Unique
     private boolean inCustomPortal;
     @Unique
     private CustomPortal destPortal;
+    // The portal the entity is standing in, in its own world
+    @Unique
+    private CustomPortal sourcePortal;
     @Unique
     private int customPortalTime;
+    // Color of the overlay the client was last told to show, 0 for none
+    @Unique
+    private int sentTransitionColor;
+    // Teleport delay the client was last told, which it waits out before predicting the teleport
+    @Unique
+    private int sentTransitionDelay;
+    @Unique
+    private int transitionSequence;
+    @Unique
+    private boolean inTransition;
     @Unique
-    private boolean packetSent = false;
+    private int transitionTimeout;
     @Unique
-    boolean inTransition;
+    private BlockPos colorLookupPos;
+    @Unique
+    private int colorLookupVersion;
+    @Unique
+    private long lastPortalCollisionTick = -1L;
+    @Unique
+    private CustomPortal lastCollisionPortal;
+    @Unique
+    private long arrivalGraceUntil;
+    @Unique
+    private CustomPortal arrivalPortal;
 
     @Shadow
     @Nullable
@@ -59,22 +86,45 @@ public abstract class EntityMixin implements EntityMixinAccess {
 
     @Inject(method = "baseTick", at = @At("TAIL"))
     public void baseTick(CallbackInfo ci) {
-        if (!inCustomPortal && packetSent && ((Entity)(Object)this) instanceof ServerPlayerEntity && !inTransition) {
-            ServerPlayNetworking.send(((ServerPlayerEntity)(Object)this), new DrawSpritePayload(0));
-            packetSent = false;
+        if (((Entity)(Object)this) instanceof ServerPlayerEntity) {
+            // A client that never reports its loading screen closing must not keep the overlay forever
+            if (inTransition && --transitionTimeout <= 0)
+                inTransition = false;
+            if (!inCustomPortal && !inTransition)
+                sendTransitionColor(0);
         }
     }
 
+    @Unique
+    private void sendTransitionColor(int color) {
+        ServerPlayerEntity player = (ServerPlayerEntity)(Object)this;
+        int delay = color != 0 && this.sourcePortal != null && this.destPortal != null
+                ? PortalBlock.getPlayerPortalDelay(player.getWorld(), player, this.sourcePortal) : 0;
+        if (color == sentTransitionColor && delay == sentTransitionDelay)
+            return;
+        sentTransitionColor = color;
+        sentTransitionDelay = delay;
+        ServerPlayNetworking.send(player, new PortalTransitionPayload(color,
+                color == 0 ? PortalTransitionPayload.State.EXIT : PortalTransitionPayload.State.ENTER, ++transitionSequence, delay));
+    }
+
+    // Entities moved across dimensions are re-created from the original, so carry the arrival grace over
+    @Inject(method = "copyFrom", at = @At("TAIL"))
+    private void copyFrom(Entity original, CallbackInfo ci) {
+        EntityMixinAccess originalAccess = (EntityMixinAccess)original;
+        this.arrivalPortal = originalAccess.getArrivalPortal();
+        this.arrivalGraceUntil = originalAccess.getArrivalGraceUntil();
+    }
+
     @Inject(method = "tickPortalTeleportation", at = @At("TAIL"))
     protected void tickPortalTeleportation(CallbackInfo ci) {
         if (world instanceof ServerWorld) {
             if (this.inCustomPortal) {
-                if (((Entity) (Object) this) instanceof ServerPlayerEntity && !packetSent) {
-                    ServerPlayNetworking.send(((ServerPlayerEntity) (Object) this), new DrawSpritePayload(this.portalColor));
-                    packetSent = true;
-                }
+                if (((Entity) (Object) this) instanceof ServerPlayerEntity)
+                    sendTransitionColor(this.portalColor);
                 if (this.portalManager == null) {
                     this.destPortal = null;
+                    this.sourcePortal = null;
                     this.inCustomPortal = false;
                     this.portalColor = 0;
                 }
@@ -86,11 +136,22 @@ public abstract class EntityMixin implements EntityMixinAccess {
     public void setInCustomPortal(CustomPortal customPortal) {
         if (this.portalManager != null) {
             this.destPortal = customPortal.getLinked();
+            this.sourcePortal = customPortal;
             this.inCustomPortal = true;
             this.portalColor = customPortal.getColor().id;
         }
     }
 
+    @Unique
+    public void setRidingThroughCustomPortal(CustomPortal customPortal) {
+        this.destPortal = customPortal.getLinked();
+        this.sourcePortal = customPortal;
+        this.inCustomPortal = true;
+        this.portalColor = customPortal.getColor().id;
+        if (((Entity) (Object) this) instanceof ServerPlayerEntity)
+            sendTransitionColor(this.portalColor);
+    }
+
     /*@Unique
     public void tickCustomPortal() {
         if (this.world instanceof ServerWorld serverWorld) {
@@ -171,6 +232,9 @@ public abstract class EntityMixin implements EntityMixinAccess {
     @Unique
     public CustomPortal getDestPortal() { return destPortal; }
 
+    @Unique
+    public CustomPortal getSourcePortal() { return sourcePortal; }
+
     @Unique
     public boolean isInCustomPortal() { return inCustomPortal; }
 
@@ -182,7 +246,10 @@ public abstract class EntityMixin implements EntityMixinAccess {
 
     @Unique
     public int getPortalColor() {
-        if (portalColor == 0) {
+        // blockPos is replaced rather than mutated when the entity moves to another block, so identity is enough here
+        if (portalColor == 0 && (blockPos != colorLookupPos || PortalRegistry.getVersion() != colorLookupVersion)) {
+            colorLookupPos = blockPos;
+            colorLookupVersion = PortalRegistry.getVersion();
             CustomPortal portal = CustomPortals.PORTALS.get(world).getPortalFromPos(blockPos);
             portalColor = portal == null ? 0 : portal.getColor().id;
         }
@@ -193,6 +260,49 @@ public abstract class EntityMixin implements EntityMixinAccess {
     public void setPortalColor(int color) { this.portalColor = color; }
 
     @Unique
-    public void setInTransition(boolean bl) { this.inTransition = bl; }
+    public void sendTransitionFlash() {
+        if (((Entity)(Object)this) instanceof ServerPlayerEntity player && this.portalColor != 0)
+            ServerPlayNetworking.send(player, new PortalTransitionPayload(this.portalColor, PortalTransitionPayload.State.FLASH, ++transitionSequence));
+    }
+
+    @Unique
+    public void onTransitionAck(PortalTransitionPayload.State state, int sequence) {
+        if (state == PortalTransitionPayload.State.SCREEN_CLOSED) {
+            inTransition = false;
+        } else if (state == PortalTransitionPayload.State.SCREEN_OPENED && sequence == transitionSequence && sentTransitionColor != 0) {
+            // Stale acks from an earlier transition are ignored
+            inTransition = true;
+            transitionTimeout = TRANSITION_TIMEOUT_TICKS;
+        }
+    }
+
+    @Unique
+    public boolean handledPortalCollision(long tick, BlockPos pos) {
+        return lastPortalCollisionTick == tick && lastCollisionPortal != null && lastCollisionPortal.isRegistered()
+                && lastCollisionPortal.contains(pos);
+    }
+
+    @Unique
+    public void setHandledPortalCollision(long tick, CustomPortal portal) {
+        this.lastPortalCollisionTick = tick;
+        this.lastCollisionPortal = portal;
+    }
+
+    @Unique
+    public boolean isInArrivalGrace(CustomPortal portal, long tick) {
+        return arrivalPortal == portal && tick < arrivalGraceUntil;
+    }
+
+    @Unique
+    public CustomPortal getArrivalPortal() { return arrivalPortal; }
+
+    @Unique
+    public long getArrivalGraceUntil() { return arrivalGraceUntil; }
+
+    @Unique
+    public void setArrivalGrace(CustomPortal portal, long until) {
+        this.arrivalPortal = portal;
+        this.arrivalGraceUntil = until;
+    }
 
 }
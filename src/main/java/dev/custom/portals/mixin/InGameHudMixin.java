@@ -1,16 +1,19 @@
 package dev.custom.portals.mixin;
 
-import dev.custom.portals.util.PortalHelper;
+import dev.custom.portals.util.ClientUtil;
+import dev.custom.portals.util.PortalSpriteCache;
 import net.minecraft.client.gl.RenderPipelines;
 import net.minecraft.client.gui.DrawContext;
+import net.minecraft.client.render.RenderTickCounter;
+import net.minecraft.util.Util;
 import net.minecraft.util.math.ColorHelper;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.spongepowered.asm.mixin.injection.At;
 
-import dev.custom.portals.blocks.PortalBlock;
 import dev.custom.portals.util.EntityMixinAccess;
 
 import org.spongepowered.asm.mixin.Final;
@@ -18,7 +21,6 @@ import org.spongepowered.asm.mixin.Final;
 import net.minecraft.client.gui.hud.InGameHud;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.texture.Sprite;
-import net.minecraft.block.Block;
 
 @Mixin(InGameHud.class)
 public abstract class InGameHudMixin {
@@ -31,7 +33,6 @@ public abstract class InGameHudMixin {
     private void renderPortalOverlay(DrawContext drawContext, float f, CallbackInfo ci) {
         int color = ((EntityMixinAccess)this.client.player).getPortalColor();
         if(color != 0 && !((EntityMixinAccess)this.client.player).isInNetherPortal()) {
-            Block spriteModel = PortalHelper.getPortalBlockFromColorId(color);
             if (f < 1.0F) {
                 f *= f;
                 f *= f;
@@ -39,9 +40,27 @@ public abstract class InGameHudMixin {
             }
 
             int i = ColorHelper.getWhite(f);
-            Sprite sprite = this.client.getBlockRenderManager().getModels().getModelParticleSprite(spriteModel.getDefaultState().with(PortalBlock.LIT, true));
+            Sprite sprite = PortalSpriteCache.get(color);
             drawContext.drawSpriteStretched(RenderPipelines.GUI_TEXTURED, sprite, 0, 0, drawContext.getScaledWindowWidth(), drawContext.getScaledWindowHeight(), i);
             ci.cancel();
         }
     }
+
+    @Unique
+    private static final long FLASH_DURATION_MS = 300;
+
+    // Stands in for the loading screen on teleports that kept the world loaded
+    @Inject(method = "render", at = @At("TAIL"))
+    private void renderTeleportFlash(DrawContext drawContext, RenderTickCounter tickCounter, CallbackInfo ci) {
+        if (ClientUtil.flashColor == 0)
+            return;
+        long elapsed = Util.getMeasuringTimeMs() - ClientUtil.flashStart;
+        if (elapsed >= FLASH_DURATION_MS) {
+            ClientUtil.flashColor = 0;
+            return;
+        }
+        float f = 1.0F - (float)elapsed / FLASH_DURATION_MS;
+        Sprite sprite = PortalSpriteCache.get(ClientUtil.flashColor);
+        drawContext.drawSpriteStretched(RenderPipelines.GUI_TEXTURED, sprite, 0, 0, drawContext.getScaledWindowWidth(), drawContext.getScaledWindowHeight(), ColorHelper.getWhite(f));
+    }
 }
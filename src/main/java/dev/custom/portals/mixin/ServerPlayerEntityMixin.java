@@ -18,6 +18,7 @@ import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 import dev.custom.portals.util.EntityMixinAccess;
+import dev.custom.portals.util.PortalHelper;
 import dev.custom.portals.mixin.TeleportTargetAccessor;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.player.PlayerEntity;
@@ -74,6 +75,11 @@ public abstract class ServerPlayerEntityMixin extends PlayerEntity {
         RegistryKey<World> registryKey = serverWorld2.getRegistryKey();
         if (((EntityMixinAccess)this).isInCustomPortal()) {
             ServerPlayerEntity thisPlayer = (ServerPlayerEntity)(Object)this;
+            // The client already has the destination loaded, so vanilla's in-place teleport is enough
+            if (PortalHelper.canTeleportSeamlessly(thisPlayer, serverWorld, teleportTarget.position())) {
+                ((EntityMixinAccess)this).sendTransitionFlash();
+                return;
+            }
             this.inTeleportationState = true;
             WorldProperties worldProperties = serverWorld.getLevelProperties();
             this.networkHandler.sendPacket(new PlayerRespawnS2CPacket(this.createCommonPlayerSpawnInfo(serverWorld), (byte)3));
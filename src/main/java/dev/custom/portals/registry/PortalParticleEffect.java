@@ -0,0 +1,52 @@
+package dev.custom.portals.registry;
+
+import com.mojang.serialization.Codec;
+import com.mojang.serialization.MapCodec;
+import io.netty.buffer.ByteBuf;
+import net.minecraft.network.codec.PacketCodec;
+import net.minecraft.network.codec.PacketCodecs;
+import net.minecraft.particle.ParticleEffect;
+import net.minecraft.particle.ParticleType;
+
+/**
+ * Portal particle tinted by the map color id of the portal it comes from.
+ */
+public record PortalParticleEffect(int colorId) implements ParticleEffect {
+
+    public static final MapCodec<PortalParticleEffect> CODEC = Codec.INT.fieldOf("color").xmap(PortalParticleEffect::new, PortalParticleEffect::colorId);
+    public static final PacketCodec<ByteBuf, PortalParticleEffect> PACKET_CODEC = PacketCodecs.VAR_INT.xmap(PortalParticleEffect::new, PortalParticleEffect::colorId);
+
+    // Red, green and blue by map color id, before the random brightness of each particle is applied
+    private static final float[][] COLORS = new float[64][];
+    // Purple portals match vanilla's portal particle
+    private static final float[] PURPLE = {0.9F, 0.3F, 1.0F};
+
+    static {
+        COLORS[29] = new float[]{0.0F, 0.0F, 0.0F};      // black
+        COLORS[25] = new float[]{0.2F, 0.2F, 1.0F};      // blue
+        COLORS[26] = new float[]{0.575F, 0.45F, 0.325F}; // brown
+        COLORS[23] = new float[]{0.2F, 0.65F, 0.8F};     // cyan
+        COLORS[21] = new float[]{0.5F, 0.5F, 0.5F};      // gray
+        COLORS[27] = new float[]{0.2F, 0.5F, 0.2F};      // green
+        COLORS[17] = new float[]{0.6F, 0.7F, 1.0F};      // light blue
+        COLORS[22] = new float[]{0.7F, 0.7F, 0.7F};      // light gray
+        COLORS[19] = new float[]{0.5F, 1.0F, 0.3F};      // lime
+        COLORS[16] = new float[]{1.0F, 0.4F, 1.0F};      // magenta
+        COLORS[15] = new float[]{1.0F, 0.7F, 0.2F};      // orange
+        COLORS[20] = new float[]{1.0F, 0.6F, 0.9F};      // pink
+        COLORS[24] = PURPLE;
+        COLORS[28] = new float[]{1.0F, 0.2F, 0.2F};      // red
+        COLORS[8] = new float[]{1.0F, 1.0F, 1.0F};       // white
+        COLORS[18] = new float[]{1.0F, 1.0F, 0.2F};      // yellow
+    }
+
+    public float[] getColor() {
+        float[] color = colorId >= 0 && colorId < COLORS.length ? COLORS[colorId] : null;
+        return color == null ? PURPLE : color;
+    }
+
+    @Override
+    public ParticleType<?> getType() {
+        return CPParticlesConstants.PORTAL_PARTICLE;
+    }
+}
@@ -0,0 +1,168 @@
+package dev.custom.portals.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Just enough of the NBT format for {@link PortalTool}, using plain Java types so that the tool runs without the
+ * game on the classpath. Compounds are maps, lists are {@link ListTag}s, and the rest map onto boxed numbers, strings
+ * and arrays.
+ */
+final class Nbt {
+
+    static final int END = 0, BYTE = 1, SHORT = 2, INT = 3, LONG = 4, FLOAT = 5, DOUBLE = 6, BYTE_ARRAY = 7,
+            STRING = 8, LIST = 9, COMPOUND = 10, INT_ARRAY = 11, LONG_ARRAY = 12;
+
+    record ListTag(int type, List<Object> items) {
+    }
+
+    private Nbt() {
+    }
+
+    static Map<String, Object> readCompressed(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))))) {
+            return readRoot(in);
+        }
+    }
+
+    static Map<String, Object> read(InputStream stream) throws IOException {
+        return readRoot(new DataInputStream(new BufferedInputStream(stream)));
+    }
+
+    static void writeCompressed(Path path, Map<String, Object> root) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(path))))) {
+            out.writeByte(COMPOUND);
+            out.writeUTF("");
+            writePayload(out, root);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readRoot(DataInput in) throws IOException {
+        if (in.readByte() != COMPOUND)
+            throw new IOException("Root tag is not a compound");
+        in.readUTF();
+        return (Map<String, Object>)readPayload(in, COMPOUND);
+    }
+
+    private static Object readPayload(DataInput in, int type) throws IOException {
+        switch (type) {
+            case BYTE: return in.readByte();
+            case SHORT: return in.readShort();
+            case INT: return in.readInt();
+            case LONG: return in.readLong();
+            case FLOAT: return in.readFloat();
+            case DOUBLE: return in.readDouble();
+            case BYTE_ARRAY: {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return bytes;
+            }
+            case STRING: return in.readUTF();
+            case LIST: {
+                int elementType = in.readByte();
+                int size = in.readInt();
+                List<Object> items = new ArrayList<>(Math.max(0, size));
+                for (int i = 0; i < size; i++)
+                    items.add(readPayload(in, elementType));
+                return new ListTag(elementType, items);
+            }
+            case COMPOUND: {
+                Map<String, Object> compound = new LinkedHashMap<>();
+                int childType;
+                while ((childType = in.readByte()) != END) {
+                    String name = in.readUTF();
+                    compound.put(name, readPayload(in, childType));
+                }
+                return compound;
+            }
+            case INT_ARRAY: {
+                int[] ints = new int[in.readInt()];
+                for (int i = 0; i < ints.length; i++)
+                    ints[i] = in.readInt();
+                return ints;
+            }
+            case LONG_ARRAY: {
+                long[] longs = new long[in.readInt()];
+                for (int i = 0; i < longs.length; i++)
+                    longs[i] = in.readLong();
+                return longs;
+            }
+            default: throw new IOException("Unknown tag type " + type);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writePayload(DataOutput out, Object value) throws IOException {
+        switch (value) {
+            case Byte b -> out.writeByte(b);
+            case Short s -> out.writeShort(s);
+            case Integer i -> out.writeInt(i);
+            case Long l -> out.writeLong(l);
+            case Float f -> out.writeFloat(f);
+            case Double d -> out.writeDouble(d);
+            case byte[] bytes -> {
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            case String s -> out.writeUTF(s);
+            case ListTag list -> {
+                out.writeByte(list.items().isEmpty() ? END : list.type());
+                out.writeInt(list.items().size());
+                for (Object item : list.items())
+                    writePayload(out, item);
+            }
+            case Map<?, ?> compound -> {
+                for (Map.Entry<String, Object> entry : ((Map<String, Object>)compound).entrySet()) {
+                    out.writeByte(typeOf(entry.getValue()));
+                    out.writeUTF(entry.getKey());
+                    writePayload(out, entry.getValue());
+                }
+                out.writeByte(END);
+            }
+            case int[] ints -> {
+                out.writeInt(ints.length);
+                for (int i : ints)
+                    out.writeInt(i);
+            }
+            case long[] longs -> {
+                out.writeInt(longs.length);
+                for (long l : longs)
+                    out.writeLong(l);
+            }
+            default -> throw new IOException("Cannot write " + value.getClass());
+        }
+    }
+
+    static int typeOf(Object value) {
+        return switch (value) {
+            case Byte b -> BYTE;
+            case Short s -> SHORT;
+            case Integer i -> INT;
+            case Long l -> LONG;
+            case Float f -> FLOAT;
+            case Double d -> DOUBLE;
+            case byte[] bytes -> BYTE_ARRAY;
+            case String s -> STRING;
+            case ListTag list -> LIST;
+            case Map<?, ?> compound -> COMPOUND;
+            case int[] ints -> INT_ARRAY;
+            case long[] longs -> LONG_ARRAY;
+            default -> throw new IllegalArgumentException("Not an NBT value: " + value.getClass());
+        };
+    }
+}
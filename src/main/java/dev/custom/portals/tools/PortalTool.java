@@ -0,0 +1,328 @@
+package dev.custom.portals.tools;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Offline checker for the portal data of a world, for use while the server is stopped. It finds the saved portal
+ * lists in the world's data files and checks every portal's blocks against the region files. Portals whose blocks
+ * are gone are reported as orphans, and so are duplicates of a portal. With --write, orphans and duplicates are
+ * dropped and the blocks are rewritten in the compact format. The original file is kept as a .bak.
+ *
+ * <p>Only plain Java is used, so the tool runs straight from the mod jar:
+ * <pre>java -cp customportals.jar dev.custom.portals.tools.PortalTool &lt;world dir&gt; [--write] [--threads n]</pre>
+ *
+ * <p>Links are not part of the saved data. The server works them out again with its own settings when it loads the
+ * portals, so there is nothing to relink here.
+ */
+public final class PortalTool {
+
+    private enum Result { VALID, ORPHAN, UNVERIFIED }
+
+    private record Portal(Map<String, Object> data, String dimensionId, String block, List<int[]> blocks) {
+        int[] anchor() { return blocks.get(0); }
+    }
+
+    private static final int MAX_CELLS_PER_BLOCK = 64;
+
+    private PortalTool() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path worldDir = null;
+        boolean write = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--write" -> write = true;
+                case "--threads" -> threads = Math.max(1, Integer.parseInt(args[++i]));
+                default -> worldDir = Path.of(args[i]);
+            }
+        }
+        if (worldDir == null || !Files.isDirectory(worldDir)) {
+            System.err.println("Usage: PortalTool <world dir> [--write] [--threads n]");
+            System.exit(2);
+        }
+        if (Files.exists(worldDir.resolve("data").resolve("customportals_journal.dat"))
+                || Files.exists(worldDir.resolve("data").resolve("customportals_journal.dat_old")))
+            System.out.println("Warning: the world has an unsaved portal journal, which is replayed on the next start and can bring back portals dropped here");
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (Path file : findDataFiles(worldDir))
+                process(worldDir, file, write, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<Path> findDataFiles(Path worldDir) throws IOException {
+        List<Path> dataDirs = new ArrayList<>(List.of(worldDir.resolve("data"), worldDir.resolve("DIM-1").resolve("data"), worldDir.resolve("DIM1").resolve("data")));
+        Path dimensions = worldDir.resolve("dimensions");
+        if (Files.isDirectory(dimensions)) {
+            try (Stream<Path> paths = Files.walk(dimensions, 3)) {
+                paths.filter(path -> path.getFileName().toString().equals("data") && Files.isDirectory(path)).forEach(dataDirs::add);
+            }
+        }
+        List<Path> files = new ArrayList<>();
+        if (Files.isRegularFile(worldDir.resolve("level.dat")))
+            files.add(worldDir.resolve("level.dat"));
+        for (Path dataDir : dataDirs) {
+            if (!Files.isDirectory(dataDir))
+                continue;
+            try (Stream<Path> paths = Files.list(dataDir)) {
+                paths.filter(path -> path.getFileName().toString().endsWith(".dat")).sorted().forEach(files::add);
+            }
+        }
+        return files;
+    }
+
+    private static void process(Path worldDir, Path file, boolean write, ExecutorService executor) throws Exception {
+        Map<String, Object> root;
+        try {
+            root = Nbt.readCompressed(file);
+        } catch (IOException e) {
+            return;
+        }
+        List<Nbt.ListTag> lists = new ArrayList<>();
+        findPortalLists(root, lists);
+        if (lists.isEmpty())
+            return;
+        System.out.println(worldDir.relativize(file) + ":");
+        for (Nbt.ListTag list : lists) {
+            List<Portal> portals = new ArrayList<>();
+            for (Object item : list.items()) {
+                Portal portal = readPortal(item);
+                if (portal != null)
+                    portals.add(portal);
+            }
+            Map<Portal, Result> results = validate(worldDir, portals, executor);
+            List<Object> kept = new ArrayList<>();
+            Set<String> anchors = new HashSet<>();
+            int malformed = 0, orphans = 0, duplicates = 0, unverified = 0;
+            int next = 0;
+            for (Object item : list.items()) {
+                // Entries the tool cannot read are left as they are, the mod decides what to do with them
+                if (next >= portals.size() || portals.get(next).data() != item) {
+                    malformed++;
+                    kept.add(item);
+                    continue;
+                }
+                Portal portal = portals.get(next++);
+                Result result = results.get(portal);
+                if (result == Result.ORPHAN) {
+                    orphans++;
+                    System.out.println("  orphan " + describe(portal));
+                    continue;
+                }
+                if (!anchors.add(portal.dimensionId() + " " + List.of(portal.anchor()[0], portal.anchor()[1], portal.anchor()[2]))) {
+                    duplicates++;
+                    System.out.println("  duplicate " + describe(portal));
+                    continue;
+                }
+                if (result == Result.UNVERIFIED)
+                    unverified++;
+                portal.data().put("portalBlocks", encodeBlocks(portal.blocks()));
+                kept.add(portal.data());
+            }
+            System.out.println("  " + portals.size() + " portals: " + orphans + " orphaned, " + duplicates + " duplicated, "
+                    + malformed + " malformed, " + unverified + " in chunks that could not be checked");
+            if (write) {
+                list.items().clear();
+                list.items().addAll(kept);
+            }
+        }
+        if (write) {
+            Files.copy(file, file.resolveSibling(file.getFileName() + ".bak"), StandardCopyOption.REPLACE_EXISTING);
+            Nbt.writeCompressed(file, root);
+            System.out.println("  written, original kept as " + file.getFileName() + ".bak");
+        }
+    }
+
+    // Portal lists are found by shape, so the tool does not depend on where the component data ends up in the file
+    private static void findPortalLists(Object value, List<Nbt.ListTag> lists) {
+        if (value instanceof Map<?, ?> compound) {
+            for (Map.Entry<?, ?> entry : compound.entrySet()) {
+                if (entry.getKey().equals("portals") && entry.getValue() instanceof Nbt.ListTag list && list.type() == Nbt.COMPOUND
+                        && !list.items().isEmpty() && ((Map<?, ?>)list.items().get(0)).containsKey("frameId"))
+                    lists.add(list);
+                else
+                    findPortalLists(entry.getValue(), lists);
+            }
+        } else if (value instanceof Nbt.ListTag list && list.type() == Nbt.COMPOUND) {
+            for (Object item : list.items())
+                findPortalLists(item, lists);
+        }
+    }
+
+    private static Map<Portal, Result> validate(Path worldDir, List<Portal> portals, ExecutorService executor) throws Exception {
+        // One task per dimension and region, so that each worker reads its own region file front to back
+        Map<String, List<Portal>> groups = new LinkedHashMap<>();
+        for (Portal portal : portals)
+            groups.computeIfAbsent(portal.dimensionId() + " " + (portal.anchor()[0] >> 9) + " " + (portal.anchor()[2] >> 9), k -> new ArrayList<>()).add(portal);
+        List<Future<Map<Portal, Result>>> futures = new ArrayList<>();
+        for (List<Portal> group : groups.values()) {
+            futures.add(executor.submit(() -> {
+                Map<Portal, Result> results = new IdentityHashMap<>();
+                group.sort(Comparator.comparingInt((Portal portal) -> portal.anchor()[0] >> 4).thenComparingInt(portal -> portal.anchor()[2] >> 4));
+                try (RegionReader reader = new RegionReader(getRegionDir(worldDir, group.get(0).dimensionId()))) {
+                    for (Portal portal : group)
+                        results.put(portal, check(reader, portal));
+                }
+                return results;
+            }));
+        }
+        Map<Portal, Result> results = new IdentityHashMap<>();
+        for (Future<Map<Portal, Result>> future : futures)
+            results.putAll(future.get());
+        return results;
+    }
+
+    private static Result check(RegionReader reader, Portal portal) {
+        Result result = Result.VALID;
+        for (int[] pos : portal.blocks()) {
+            String block;
+            try {
+                block = reader.getBlock(pos[0], pos[1], pos[2]);
+            } catch (IOException e) {
+                block = null;
+            }
+            if (block == null)
+                result = Result.UNVERIFIED;
+            else if (!block.equals(portal.block()))
+                return Result.ORPHAN;
+        }
+        return result;
+    }
+
+    private static Path getRegionDir(Path worldDir, String dimensionId) {
+        return switch (dimensionId) {
+            case "minecraft:overworld" -> worldDir.resolve("region");
+            case "minecraft:the_nether" -> worldDir.resolve("DIM-1").resolve("region");
+            case "minecraft:the_end" -> worldDir.resolve("DIM1").resolve("region");
+            default -> {
+                String[] id = dimensionId.split(":", 2);
+                yield id.length == 2 ? worldDir.resolve("dimensions").resolve(id[0]).resolve(id[1]).resolve("region")
+                        : worldDir.resolve("dimensions").resolve("minecraft").resolve(id[0]).resolve("region");
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Portal readPortal(Object item) {
+        if (!(item instanceof Map<?, ?> compound) || !(compound.get("dimensionId") instanceof String dimensionId)
+                || !(compound.get("color") instanceof Integer color))
+            return null;
+        List<int[]> blocks = decodeBlocks(compound.get("portalBlocks"));
+        if (blocks == null || blocks.isEmpty())
+            return null;
+        return new Portal((Map<String, Object>)compound, dimensionId, getPortalBlock(color), blocks);
+    }
+
+    // The portal block of each map color, as PortalHelper.getPortalBlockFromColorId picks it in the mod
+    private static String getPortalBlock(int colorId) {
+        return switch (colorId) {
+            case 29 -> "customportals:black_portal";
+            case 25 -> "customportals:blue_portal";
+            case 26 -> "customportals:brown_portal";
+            case 23 -> "customportals:cyan_portal";
+            case 21 -> "customportals:gray_portal";
+            case 27 -> "customportals:green_portal";
+            case 17 -> "customportals:light_blue_portal";
+            case 22 -> "customportals:light_gray_portal";
+            case 19 -> "customportals:lime_portal";
+            case 16 -> "customportals:magenta_portal";
+            case 15 -> "customportals:orange_portal";
+            case 20 -> "customportals:pink_portal";
+            case 24 -> "customportals:purple_portal";
+            case 28 -> "customportals:red_portal";
+            case 8 -> "customportals:white_portal";
+            case 18 -> "customportals:yellow_portal";
+            default -> "minecraft:nether_portal";
+        };
+    }
+
+    private static String describe(Portal portal) {
+        int[] anchor = portal.anchor();
+        return portal.dimensionId() + " (" + anchor[0] + ", " + anchor[1] + ", " + anchor[2] + "), "
+                + portal.blocks().size() + " blocks, color " + portal.data().get("color");
+    }
+
+    // Reads both the plain list and the bounding box bitmask the mod saves portal blocks as
+    private static List<int[]> decodeBlocks(Object value) {
+        List<int[]> blocks = new ArrayList<>();
+        if (value instanceof Nbt.ListTag list) {
+            for (Object item : list.items()) {
+                if (!(item instanceof int[] pos) || pos.length != 3)
+                    return null;
+                blocks.add(pos);
+            }
+            return blocks;
+        }
+        if (!(value instanceof Map<?, ?> compact) || !(compact.get("origin") instanceof int[] origin) || !(compact.get("size") instanceof int[] size)
+                || !(compact.get("mask") instanceof long[] mask) || !(compact.get("first") instanceof Integer first))
+            return null;
+        if (origin.length != 3 || size.length != 3 || size[0] <= 0 || size[1] <= 0 || size[2] <= 0)
+            return null;
+        long cells = (long)size[0] * size[1] * size[2];
+        if (mask.length != (cells + 63) >> 6 || first < 0 || first >= cells || (mask[first >> 6] & 1L << (first & 63)) == 0)
+            return null;
+        blocks.add(position(origin, size, first));
+        for (int i = 0; i < cells; i++) {
+            if (i != first && (mask[i >> 6] & 1L << (i & 63)) != 0)
+                blocks.add(position(origin, size, i));
+        }
+        return blocks;
+    }
+
+    private static Object encodeBlocks(List<int[]> blocks) {
+        int[] origin = { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE };
+        int[] max = { Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE };
+        for (int[] pos : blocks) {
+            for (int axis = 0; axis < 3; axis++) {
+                origin[axis] = Math.min(origin[axis], pos[axis]);
+                max[axis] = Math.max(max[axis], pos[axis]);
+            }
+        }
+        int[] size = { max[0] - origin[0] + 1, max[1] - origin[1] + 1, max[2] - origin[2] + 1 };
+        long cells = (long)size[0] * size[1] * size[2];
+        if (cells > (long)blocks.size() * MAX_CELLS_PER_BLOCK)
+            return new Nbt.ListTag(Nbt.INT_ARRAY, new ArrayList<>(blocks));
+        long[] mask = new long[(int)((cells + 63) >> 6)];
+        for (int[] pos : blocks) {
+            int i = index(origin, size, pos);
+            mask[i >> 6] |= 1L << (i & 63);
+        }
+        Map<String, Object> compact = new LinkedHashMap<>();
+        compact.put("origin", origin);
+        compact.put("size", size);
+        compact.put("mask", mask);
+        compact.put("first", index(origin, size, blocks.get(0)));
+        return compact;
+    }
+
+    // Same cell order as PortalBlockSet in the mod
+    private static int index(int[] origin, int[] size, int[] pos) {
+        return ((pos[1] - origin[1]) * size[2] + pos[2] - origin[2]) * size[0] + pos[0] - origin[0];
+    }
+
+    private static int[] position(int[] origin, int[] size, int index) {
+        int x = index % size[0];
+        int z = index / size[0] % size[2];
+        int y = index / size[0] / size[2];
+        return new int[] { origin[0] + x, origin[1] + y, origin[2] + z };
+    }
+}
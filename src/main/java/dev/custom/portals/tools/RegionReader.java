@@ -0,0 +1,138 @@
+package dev.custom.portals.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads block names out of a dimension's region files. Not thread safe, every worker of {@link PortalTool} uses its
+ * own reader. The last few chunks read are cached, so checking the blocks of a portal costs one chunk read per chunk it
+ * is in.
+ */
+final class RegionReader implements AutoCloseable {
+
+    private static final int SECTOR_SIZE = 4096;
+    private static final int CACHED_CHUNKS = 16;
+
+    private final Path regionDir;
+    private final Map<Long, RandomAccessFile> regions = new HashMap<>();
+    // Portals are checked in chunk order, so a few recent chunks are all that is worth keeping
+    private final Map<Long, Map<String, Object>> chunks = new LinkedHashMap<>(CACHED_CHUNKS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Map<String, Object>> eldest) {
+            return size() > CACHED_CHUNKS;
+        }
+    };
+
+    RegionReader(Path regionDir) {
+        this.regionDir = regionDir;
+    }
+
+    /**
+     * Returns the name of the block at the position, or null if its chunk was never generated, is not fully generated
+     * or could not be made sense of.
+     */
+    String getBlock(int x, int y, int z) throws IOException {
+        Map<String, Object> chunk = getChunk(x >> 4, z >> 4);
+        if (chunk == null || !(chunk.get("sections") instanceof Nbt.ListTag sections))
+            return null;
+        for (Object item : sections.items()) {
+            Map<?, ?> section = (Map<?, ?>)item;
+            if (!(section.get("Y") instanceof Byte sectionY) || sectionY != y >> 4)
+                continue;
+            if (!(section.get("block_states") instanceof Map<?, ?> blockStates) || !(blockStates.get("palette") instanceof Nbt.ListTag palette))
+                return "minecraft:air";
+            int index = 0;
+            if (palette.items().size() > 1 && blockStates.get("data") instanceof long[] data) {
+                int bits = Math.max(4, 32 - Integer.numberOfLeadingZeros(palette.items().size() - 1));
+                int perLong = 64 / bits;
+                int cell = ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+                if (cell / perLong >= data.length)
+                    return null;
+                index = (int)((data[cell / perLong] >>> (cell % perLong * bits)) & ((1L << bits) - 1));
+            }
+            if (index >= palette.items().size())
+                return null;
+            return String.valueOf(((Map<?, ?>)palette.items().get(index)).get("Name"));
+        }
+        return "minecraft:air";
+    }
+
+    private Map<String, Object> getChunk(int chunkX, int chunkZ) throws IOException {
+        long key = ((long)chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+        if (chunks.containsKey(key))
+            return chunks.get(key);
+        Map<String, Object> chunk = readChunk(chunkX, chunkZ);
+        chunks.put(key, chunk);
+        return chunk;
+    }
+
+    private Map<String, Object> readChunk(int chunkX, int chunkZ) throws IOException {
+        RandomAccessFile region = getRegion(chunkX >> 5, chunkZ >> 5);
+        if (region == null)
+            return null;
+        region.seek(4L * ((chunkX & 31) + (chunkZ & 31) * 32));
+        int location = region.readInt();
+        if (location == 0)
+            return null;
+        region.seek((long)(location >>> 8) * SECTOR_SIZE);
+        int length = region.readInt();
+        if (length <= 1)
+            return null;
+        int compression = region.readByte();
+        InputStream raw;
+        // Oversized chunks are stored in a file of their own next to the region
+        if ((compression & 128) != 0) {
+            Path external = regionDir.resolve("c." + chunkX + "." + chunkZ + ".mcc");
+            if (!Files.exists(external))
+                return null;
+            raw = Files.newInputStream(external);
+        } else {
+            byte[] bytes = new byte[length - 1];
+            region.readFully(bytes);
+            raw = new ByteArrayInputStream(bytes);
+        }
+        try (InputStream in = decompress(raw, compression & 127)) {
+            Map<String, Object> chunk = Nbt.read(in);
+            // Chunks that are still generating do not have their final blocks yet
+            Object status = chunk.get("Status");
+            return status == null || List.of("minecraft:full", "full").contains(status) ? chunk : null;
+        }
+    }
+
+    private static InputStream decompress(InputStream raw, int compression) throws IOException {
+        return switch (compression) {
+            case 1 -> new GZIPInputStream(raw);
+            case 2 -> new InflaterInputStream(raw);
+            case 3 -> raw;
+            default -> throw new IOException("Unsupported chunk compression " + compression);
+        };
+    }
+
+    private RandomAccessFile getRegion(int regionX, int regionZ) throws IOException {
+        long key = ((long)regionX << 32) | (regionZ & 0xFFFFFFFFL);
+        if (regions.containsKey(key))
+            return regions.get(key);
+        Path path = regionDir.resolve("r." + regionX + "." + regionZ + ".mca");
+        RandomAccessFile region = Files.isRegularFile(path) && Files.size(path) >= 2 * SECTOR_SIZE ? new RandomAccessFile(path.toFile(), "r") : null;
+        regions.put(key, region);
+        return region;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (RandomAccessFile region : regions.values()) {
+            if (region != null)
+                region.close();
+        }
+    }
+}
@@ -2,10 +2,22 @@ package dev.custom.portals.util;
 
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
-import net.minecraft.block.Block;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
 
 @Environment(EnvType.CLIENT)
 public class ClientUtil {
     public static boolean isTransitioning;
-    public static Block transitionBackgroundSpriteModel;
+    // Map color id of the portal shown on the loading screen, 0 for none
+    public static int transitionColor;
+    // Sequence of the last transition the server sent, echoed back when the loading screen opens
+    public static int transitionSequence;
+    // Ticks the server makes the player stand in the current portal, 0 until it has said
+    public static int transitionDelay;
+    // Color and start time of the flash shown for teleports that skip the loading screen
+    public static int flashColor;
+    public static long flashStart;
+
+    public static void sendTransitionAck(PortalTransitionPayload.State state) {
+        ClientPlayNetworking.send(new PortalTransitionPayload(0, state, transitionSequence));
+    }
 }
@@ -1,15 +1,25 @@
 package dev.custom.portals.util;
 
 import dev.custom.portals.data.CustomPortal;
+import net.minecraft.util.math.BlockPos;
 
 public interface EntityMixinAccess {
     
     public void setInCustomPortal(CustomPortal portal);
+    public void setRidingThroughCustomPortal(CustomPortal portal);
     public boolean isInCustomPortal();
     public boolean isInNetherPortal();
     public void notInCustomPortal();
     public int getPortalColor();
     public void setPortalColor(int color);
-    public void setInTransition(boolean bl);
+    public void onTransitionAck(PortalTransitionPayload.State state, int sequence);
+    public void sendTransitionFlash();
     public CustomPortal getDestPortal();
+    public CustomPortal getSourcePortal();
+    public boolean handledPortalCollision(long tick, BlockPos pos);
+    public void setHandledPortalCollision(long tick, CustomPortal portal);
+    public boolean isInArrivalGrace(CustomPortal portal, long tick);
+    public CustomPortal getArrivalPortal();
+    public long getArrivalGraceUntil();
+    public void setArrivalGrace(CustomPortal portal, long until);
 }
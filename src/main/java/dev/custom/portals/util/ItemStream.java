@@ -0,0 +1,122 @@
+package dev.custom.portals.util;
+
+import dev.custom.portals.config.CPSettings;
+import dev.custom.portals.data.CustomPortal;
+import net.minecraft.block.entity.HopperBlockEntity;
+import net.minecraft.entity.ItemEntity;
+import net.minecraft.inventory.Inventory;
+import net.minecraft.item.ItemStack;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.util.math.Direction;
+import net.minecraft.util.math.Vec3d;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Item stream mode: instead of teleporting every dropped item entity, the stacks are taken off the
+ * entry portal and queued for the linked portal. Once per server tick each queue is merged into as few
+ * stacks as possible and delivered, either straight into a container next to the destination or as
+ * freshly spawned item entities.
+ */
+public class ItemStream {
+
+    // A queued stack remembers where it entered, so it can be dropped there again if it cannot be delivered
+    private record QueuedStack(ItemStack stack, ServerWorld world, Vec3d pos) {}
+
+    private static final Map<CustomPortal, List<QueuedStack>> pending = new IdentityHashMap<>();
+
+    public static boolean tryEnqueue(ServerWorld world, CustomPortal portal, ItemEntity itemEntity) {
+        CustomPortal.Link link = portal.getLink();
+        if (link == null || itemEntity.getStack().isEmpty())
+            return false;
+        ServerWorld destWorld = PortalHelper.getWorldFromDimensionId(world.getServer(), link.dimensionId());
+        if (destWorld == null)
+            return false;
+        // Let the regular teleport handle destinations that would need a chunk load
+        BlockPos dest = BlockPos.ofFloored(link.arrivalPos());
+        if (!destWorld.isChunkLoaded(ChunkSectionPos.getSectionCoord(dest.getX()), ChunkSectionPos.getSectionCoord(dest.getZ())))
+            return false;
+        // Worlds ticking in parallel may queue items at the same time
+        synchronized (pending) {
+            pending.computeIfAbsent(link.portal(), p -> new ArrayList<>())
+                    .add(new QueuedStack(itemEntity.getStack().copy(), world, itemEntity.getPos()));
+        }
+        itemEntity.discard();
+        return true;
+    }
+
+    public static void flush(MinecraftServer server) {
+        Map<CustomPortal, List<QueuedStack>> pending;
+        synchronized (ItemStream.pending) {
+            if (ItemStream.pending.isEmpty())
+                return;
+            pending = new IdentityHashMap<>(ItemStream.pending);
+            ItemStream.pending.clear();
+        }
+        for (Map.Entry<CustomPortal, List<QueuedStack>> entry : pending.entrySet()) {
+            CustomPortal destPortal = entry.getKey();
+            ServerWorld destWorld = PortalHelper.getWorldFromDimensionId(server, destPortal.getDimensionId());
+            // The destination may have been broken since the stacks were queued
+            if (destWorld == null || !destPortal.isRegistered()) {
+                for (QueuedStack queued : entry.getValue())
+                    dropAtSource(queued);
+                continue;
+            }
+            List<ItemStack> stacks = new ArrayList<>();
+            for (QueuedStack queued : entry.getValue())
+                stacks.add(queued.stack());
+            deliver(destWorld, destPortal, merge(stacks));
+        }
+    }
+
+    private static void dropAtSource(QueuedStack queued) {
+        Vec3d pos = queued.pos();
+        queued.world().spawnEntity(new ItemEntity(queued.world(), pos.x, pos.y, pos.z, queued.stack(), 0.0D, 0.0D, 0.0D));
+    }
+
+    private static List<ItemStack> merge(List<ItemStack> stacks) {
+        List<ItemStack> merged = new ArrayList<>();
+        for (ItemStack stack : stacks) {
+            for (ItemStack target : merged) {
+                if (stack.isEmpty())
+                    break;
+                if (target.getCount() < target.getMaxCount() && ItemStack.areItemsAndComponentsEqual(target, stack)) {
+                    int moved = Math.min(stack.getCount(), target.getMaxCount() - target.getCount());
+                    target.increment(moved);
+                    stack.decrement(moved);
+                }
+            }
+            if (!stack.isEmpty())
+                merged.add(stack);
+        }
+        return merged;
+    }
+
+    private static void deliver(ServerWorld world, CustomPortal destPortal, List<ItemStack> stacks) {
+        BlockPos dest = destPortal.getSpawnPos();
+        for (Direction direction : Direction.values()) {
+            Inventory inventory = HopperBlockEntity.getInventoryAt(world, dest.offset(direction));
+            if (inventory == null)
+                continue;
+            for (int i = 0; i < stacks.size(); i++) {
+                stacks.set(i, HopperBlockEntity.transfer(null, inventory, stacks.get(i), direction.getOpposite()));
+            }
+        }
+        double x = dest.getX() + destPortal.offsetX;
+        double z = dest.getZ() + destPortal.offsetZ;
+        for (ItemStack stack : stacks) {
+            if (stack.isEmpty())
+                continue;
+            ItemEntity itemEntity = new ItemEntity(world, x, dest.getY(), z, stack, 0.0D, 0.0D, 0.0D);
+            // Otherwise the stack streams straight back through the portal it arrived at
+            ((EntityMixinAccess)itemEntity).setArrivalGrace(destPortal, world.getTime() + CPSettings.instance().arrivalGraceTicks);
+            world.spawnEntity(itemEntity);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package dev.custom.portals.util;
+
+import dev.custom.portals.config.CPSettings;
+import dev.custom.portals.data.CustomPortal;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Limits the particles and ambient sounds portal blocks produce on the client. Particles thin out with distance from
+ * the player, only a limited number of blocks per portal emit in a tick, and each portal plays a single ambient sound
+ * from its center instead of one per block.
+ */
+@Environment(EnvType.CLIENT)
+public class PortalEffectsBudget {
+
+    private static final int MAX_PARTICLES_PER_BLOCK = 4;
+    private static final int AMBIENT_SOUND_COOLDOWN_TICKS = 100;
+
+    private static final Map<CustomPortal, Integer> emitters = new IdentityHashMap<>();
+    private static long emittersTick = Long.MIN_VALUE;
+    // Weak keys, so portals that get removed on the client are dropped here too
+    private static final Map<CustomPortal, Long> lastAmbientSound = new WeakHashMap<>();
+
+    public static int getParticleCount(World world, BlockPos pos, @Nullable CustomPortal portal) {
+        if (portal != null) {
+            int cap = CPSettings.instance().maxParticleEmittersPerPortal;
+            if (cap > 0) {
+                if (world.getTime() != emittersTick) {
+                    emittersTick = world.getTime();
+                    emitters.clear();
+                }
+                int emitted = emitters.merge(portal, 1, Integer::sum);
+                if (emitted > cap)
+                    return 0;
+            }
+        }
+        PlayerEntity player = MinecraftClient.getInstance().player;
+        if (player == null)
+            return MAX_PARTICLES_PER_BLOCK;
+        double distance = player.squaredDistanceTo(pos.getX() + 0.5D, pos.getY() + 0.5D, pos.getZ() + 0.5D);
+        if (distance < 8 * 8)
+            return MAX_PARTICLES_PER_BLOCK;
+        if (distance < 16 * 16)
+            return MAX_PARTICLES_PER_BLOCK / 2;
+        return 1;
+    }
+
+    public static boolean tryPlayAmbientSound(World world, CustomPortal portal) {
+        Long last = lastAmbientSound.get(portal);
+        if (last != null && world.getTime() - last < AMBIENT_SOUND_COOLDOWN_TICKS && world.getTime() >= last)
+            return false;
+        lastAmbientSound.put(portal, world.getTime());
+        return true;
+    }
+}
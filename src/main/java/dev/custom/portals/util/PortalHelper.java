@@ -9,11 +9,17 @@ import net.minecraft.block.Block;
 import net.minecraft.block.BlockState;
 import net.minecraft.block.Blocks;
 import net.minecraft.registry.Registries;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.BlockRotation;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.Direction;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.math.Vec3d;
 import net.minecraft.util.math.Vec3i;
 import net.minecraft.world.World;
 
@@ -21,8 +27,7 @@ import java.util.*;
 
 public class PortalHelper {
 
-    public static final Identifier DRAW_SPRITE_PACKET_ID = Identifier.of("customportals", "draw_sprite");
-    public static final Identifier SCREEN_TRANSITION_PACKET_ID = Identifier.of("customportals", "is_in_transition");
+    public static final Identifier TRANSITION_PACKET_ID = Identifier.of("customportals", "transition");
 
     private static BlockPos getUp(BlockPos pos, Direction.Axis axis) {
         return axis == Direction.Axis.Y ? pos.north() : pos.up();
@@ -231,6 +236,28 @@ public class PortalHelper {
         return true;
     }
 
+    /**
+     * Whether a player can be teleported in place, without the world being reloaded behind a loading screen. That is
+     * the case for same-dimension teleports to a spot whose chunks the client is already tracking.
+     */
+    public static boolean canTeleportSeamlessly(ServerPlayerEntity player, ServerWorld destWorld, Vec3d destPos) {
+        if (!CPSettings.instance().seamlessLocalTeleports || player.getWorld() != destWorld)
+            return false;
+        ChunkPos dest = new ChunkPos(BlockPos.ofFloored(destPos));
+        // The client only gets chunks out to its own view distance, clamped the same way vanilla's chunk loading does
+        int viewDistance = MathHelper.clamp(player.getViewDistance(), 2, destWorld.getServer().getPlayerManager().getViewDistance());
+        // Stay a chunk inside the view distance, edge chunks may not have reached the client yet
+        return player.getChunkPos().getChebyshevDistance(dest) < viewDistance && destWorld.isChunkLoaded(dest.x, dest.z);
+    }
+
+    public static ServerWorld getWorldFromDimensionId(MinecraftServer server, String dimensionId) {
+        for (RegistryKey<World> registryKey : server.getWorldRegistryKeys()) {
+            if (registryKey.getValue().toString().equals(dimensionId))
+                return server.getWorld(registryKey);
+        }
+        return null;
+    }
+
     public static Block getPortalBlockFromColorId(int colorId) {
         return switch (colorId) {
             case 29 -> CPBlocks.BLACK_PORTAL;
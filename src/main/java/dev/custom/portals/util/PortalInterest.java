@@ -0,0 +1,264 @@
+package dev.custom.portals.util;
+
+import dev.custom.portals.CustomPortals;
+import dev.custom.portals.data.CustomPortal;
+import dev.custom.portals.data.PortalRegistry;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayNetworkHandler;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.WorldChunk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.LongConsumer;
+
+/**
+ * Decides which portals each client knows about. A player is sent the portals that overlap a loaded chunk within
+ * their own view distance in their current dimension, plus whatever those portals are linked to. Portals that fall
+ * out of range, or whose chunks unload, are evicted from the client again, so client memory and join traffic do not
+ * grow with the total number of portals.
+ *
+ * <p>Each player's view keeps the chunks it tracks and how many of them every portal overlaps. Moving only looks at
+ * the chunks that entered or left the view, and registry changes only recount the portals they touch.
+ */
+public class PortalInterest {
+
+    private static class View {
+        final Set<CustomPortal> known = Collections.newSetFromMap(new IdentityHashMap<>());
+        // Loaded chunks in range, and how many of them each portal overlaps
+        final Set<Long> tracked = new HashSet<>();
+        final Map<CustomPortal, Integer> inRange = new IdentityHashMap<>();
+        int sequence;
+        String dimensionId;
+        int centerX;
+        int centerZ;
+        int radius;
+
+        boolean isInRange(int chunkX, int chunkZ) {
+            return Math.max(Math.abs(chunkX - centerX), Math.abs(chunkZ - centerZ)) <= radius;
+        }
+    }
+
+    private static final Map<UUID, View> views = new HashMap<>();
+
+    /**
+     * Resets what the player knows to the portals currently in range and returns them as a full sync.
+     */
+    public static PortalSyncPayload fullSync(ServerPlayerEntity player, PortalRegistry registry) {
+        View view = views.computeIfAbsent(player.getUuid(), uuid -> new View());
+        World world = player.getWorld();
+        view.dimensionId = world.getRegistryKey().getValue().toString();
+        view.centerX = player.getChunkPos().x;
+        view.centerZ = player.getChunkPos().z;
+        view.radius = getRadius(player);
+        view.tracked.clear();
+        view.inRange.clear();
+        for (int x = view.centerX - view.radius; x <= view.centerX + view.radius; x++) {
+            for (int z = view.centerZ - view.radius; z <= view.centerZ + view.radius; z++) {
+                if (world.isChunkLoaded(x, z))
+                    track(view, registry, ChunkPos.toLong(x, z));
+            }
+        }
+        view.known.clear();
+        view.known.addAll(getInterest(view));
+        return PortalSyncPayload.full(view.known, ++view.sequence);
+    }
+
+    public static void onChanges(MinecraftServer server, PortalRegistry registry, Map<CustomPortal, EnumSet<PortalRegistry.Change>> changes) {
+        for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
+            View view = views.get(player.getUuid());
+            if (view == null)
+                continue;
+            for (Map.Entry<CustomPortal, EnumSet<PortalRegistry.Change>> change : changes.entrySet()) {
+                if (change.getValue().contains(PortalRegistry.Change.ADDED) || change.getValue().contains(PortalRegistry.Change.REMOVED))
+                    recount(view, change.getKey());
+            }
+            update(player, view, changes);
+        }
+    }
+
+    // Refreshes the players that moved to another chunk or dimension, or changed their view distance, since their last update
+    public static void tick(MinecraftServer server) {
+        for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
+            View view = views.get(player.getUuid());
+            if (view == null)
+                continue;
+            World world = player.getWorld();
+            String dimensionId = world.getRegistryKey().getValue().toString();
+            PortalRegistry registry = CustomPortals.PORTALS.get(world).getPortalRegistry();
+            if (!dimensionId.equals(view.dimensionId)) {
+                // The client starts the new world with an empty registry, so a delta would have nothing to apply to
+                ServerPlayNetworking.send(player, fullSync(player, registry));
+                continue;
+            }
+            int centerX = player.getChunkPos().x;
+            int centerZ = player.getChunkPos().z;
+            int radius = getRadius(player);
+            if (centerX == view.centerX && centerZ == view.centerZ && radius == view.radius)
+                continue;
+            boolean[] changed = new boolean[1];
+            forEachOutside(view.centerX, view.centerZ, view.radius, centerX, centerZ, radius, chunkPos ->
+                    changed[0] |= untrack(view, registry, chunkPos));
+            forEachOutside(centerX, centerZ, radius, view.centerX, view.centerZ, view.radius, chunkPos -> {
+                if (world.isChunkLoaded(ChunkPos.getPackedX(chunkPos), ChunkPos.getPackedZ(chunkPos)))
+                    changed[0] |= track(view, registry, chunkPos);
+            });
+            view.centerX = centerX;
+            view.centerZ = centerZ;
+            view.radius = radius;
+            if (changed[0])
+                update(player, view, Map.of());
+        }
+    }
+
+    public static void onChunkLoad(ServerWorld world, WorldChunk chunk) {
+        onChunk(world, chunk.getPos(), true);
+    }
+
+    public static void onChunkUnload(ServerWorld world, WorldChunk chunk) {
+        onChunk(world, chunk.getPos(), false);
+    }
+
+    public static void onDisconnect(ServerPlayNetworkHandler handler, MinecraftServer server) {
+        views.remove(handler.getPlayer().getUuid());
+    }
+
+    public static void clear(MinecraftServer server) {
+        views.clear();
+    }
+
+    private static void onChunk(ServerWorld world, ChunkPos pos, boolean loaded) {
+        // Chunks load and unload on their world's thread, the views belong to the server thread
+        PortalTasks.run(world.getServer(), () -> {
+            String dimensionId = world.getRegistryKey().getValue().toString();
+            PortalRegistry registry = CustomPortals.PORTALS.get(world).getPortalRegistry();
+            for (ServerPlayerEntity player : world.getServer().getPlayerManager().getPlayerList()) {
+                View view = views.get(player.getUuid());
+                if (view == null || !dimensionId.equals(view.dimensionId) || !view.isInRange(pos.x, pos.z))
+                    continue;
+                boolean changed = loaded ? track(view, registry, pos.toLong()) : untrack(view, registry, pos.toLong());
+                if (changed)
+                    update(player, view, Map.of());
+            }
+        });
+    }
+
+    // Returns whether any portal came into range
+    private static boolean track(View view, PortalRegistry registry, long chunkPos) {
+        if (!view.tracked.add(chunkPos))
+            return false;
+        boolean changed = false;
+        for (CustomPortal portal : registry.getPortalsInChunk(view.dimensionId, ChunkPos.getPackedX(chunkPos), ChunkPos.getPackedZ(chunkPos))) {
+            if (view.inRange.merge(portal, 1, Integer::sum) == 1)
+                changed = true;
+        }
+        return changed;
+    }
+
+    // Returns whether any portal went out of range
+    private static boolean untrack(View view, PortalRegistry registry, long chunkPos) {
+        if (!view.tracked.remove(chunkPos))
+            return false;
+        boolean changed = false;
+        for (CustomPortal portal : registry.getPortalsInChunk(view.dimensionId, ChunkPos.getPackedX(chunkPos), ChunkPos.getPackedZ(chunkPos))) {
+            // Portals registered or removed since the chunk was tracked are recounted when their change comes in
+            if (view.inRange.computeIfPresent(portal, (p, count) -> count > 1 ? count - 1 : null) == null)
+                changed = true;
+        }
+        return changed;
+    }
+
+    // Counts the tracked chunks an added or removed portal overlaps from scratch
+    private static void recount(View view, CustomPortal portal) {
+        if (!portal.getDimensionId().equals(view.dimensionId))
+            return;
+        int[] count = new int[1];
+        if (portal.isRegistered()) {
+            PortalRegistry.forEachChunk(portal, chunkPos -> {
+                if (view.tracked.contains(chunkPos))
+                    count[0]++;
+            });
+        }
+        if (count[0] > 0)
+            view.inRange.put(portal, count[0]);
+        else view.inRange.remove(portal);
+    }
+
+    // Runs the action for every chunk of the first square that is not in the second
+    private static void forEachOutside(int centerX, int centerZ, int radius, int otherX, int otherZ, int otherRadius, LongConsumer action) {
+        for (int x = centerX - radius; x <= centerX + radius; x++) {
+            boolean columnOverlaps = Math.abs(x - otherX) <= otherRadius;
+            for (int z = centerZ - radius; z <= centerZ + radius; z++) {
+                if (columnOverlaps && Math.abs(z - otherZ) <= otherRadius) {
+                    z = otherZ + otherRadius;
+                    continue;
+                }
+                action.accept(ChunkPos.toLong(x, z));
+            }
+        }
+    }
+
+    private static int getRadius(ServerPlayerEntity player) {
+        // The client only gets chunks out to its own view distance, clamped the same way vanilla's chunk loading does
+        return MathHelper.clamp(player.getViewDistance(), 2, player.getWorld().getServer().getPlayerManager().getViewDistance()) + 1;
+    }
+
+    private static void update(ServerPlayerEntity player, View view, Map<CustomPortal, EnumSet<PortalRegistry.Change>> changes) {
+        Set<CustomPortal> interest = getInterest(view);
+        List<PortalSyncPayload.Entry> entries = new ArrayList<>();
+        // Links are sent last, so that both ends of a link already exist on the client
+        Set<CustomPortal> relinked = Collections.newSetFromMap(new IdentityHashMap<>());
+        view.known.removeIf(portal -> {
+            if (interest.contains(portal))
+                return false;
+            entries.add(PortalSyncPayload.removed(portal));
+            return true;
+        });
+        for (CustomPortal portal : interest) {
+            if (view.known.add(portal)) {
+                entries.add(new PortalSyncPayload.Added(portal));
+                relinked.add(portal);
+            }
+        }
+        for (Map.Entry<CustomPortal, EnumSet<PortalRegistry.Change>> change : changes.entrySet()) {
+            CustomPortal portal = change.getKey();
+            if (!view.known.contains(portal) || relinked.contains(portal))
+                continue;
+            if (change.getValue().contains(PortalRegistry.Change.RUNES_CHANGED))
+                entries.add(PortalSyncPayload.runesChanged(portal));
+            if (change.getValue().contains(PortalRegistry.Change.SPAWN_CHANGED))
+                entries.add(PortalSyncPayload.spawnChanged(portal));
+            if (change.getValue().contains(PortalRegistry.Change.LINK_CHANGED))
+                relinked.add(portal);
+        }
+        for (CustomPortal portal : relinked) {
+            entries.add(PortalSyncPayload.linkChanged(portal));
+        }
+        if (!entries.isEmpty())
+            ServerPlayNetworking.send(player, new PortalSyncPayload(++view.sequence, false, entries));
+    }
+
+    private static Set<CustomPortal> getInterest(View view) {
+        Set<CustomPortal> interest = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (CustomPortal portal : view.inRange.keySet()) {
+            interest.add(portal);
+            CustomPortal linked = portal.getLinked();
+            if (linked != null)
+                interest.add(linked);
+        }
+        return interest;
+    }
+}
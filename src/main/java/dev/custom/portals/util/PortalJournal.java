@@ -0,0 +1,174 @@
+package dev.custom.portals.util;
+
+import dev.custom.portals.CustomPortals;
+import dev.custom.portals.config.CPSettings;
+import dev.custom.portals.data.CustomPortal;
+import dev.custom.portals.data.PortalRegistry;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtOps;
+import net.minecraft.nbt.NbtSizeTracker;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.WorldSavePath;
+import net.minecraft.util.math.BlockPos;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * Append-only log of portal changes made since the last world save, kept next to the save so that portals built,
+ * broken or changed between autosaves survive a crash. Each change costs one small record at the end of the file.
+ * The log is replayed when the server starts and emptied again once a save has written the changes into the portal
+ * data itself. Replayed portals are not linked one by one, LinkSolver links them with all the others right after.
+ *
+ * <p>A save that does not flush may still be writing the portal data on the IO worker when it returns, so the log is
+ * then only rotated: it is kept as the previous log and deleted at the next save. Replay reads the previous log
+ * before the current one. Every record is the whole portal or its removal, so replaying changes a finished save
+ * already holds leaves the portals as they were.
+ */
+public class PortalJournal {
+
+    private static final String FILE_NAME = "customportals_journal.dat";
+    private static final String PREVIOUS_FILE_NAME = "customportals_journal.dat_old";
+
+    private static DataOutputStream out;
+
+    public static void replay(MinecraftServer server) {
+        PortalRegistry registry = CustomPortals.PORTALS.get(server.getOverworld()).getPortalRegistry();
+        int replayed = replay(registry, getPath(server, PREVIOUS_FILE_NAME)) + replay(registry, getPath(server, FILE_NAME));
+        if (replayed > 0) {
+            // Already saved in the journal, so none of this is recorded again
+            registry.drainChanges();
+            CustomPortals.PORTALS.get(server.getOverworld()).syncWithAll(server);
+            CustomPortals.LOGGER.info("Replayed {} portal changes from the journal", replayed);
+        }
+    }
+
+    private static int replay(PortalRegistry registry, Path path) {
+        if (!Files.exists(path))
+            return 0;
+        int replayed = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                NbtCompound record;
+                try {
+                    record = NbtIo.readCompound(in, NbtSizeTracker.ofUnlimitedBytes());
+                } catch (EOFException e) {
+                    // Either the end of the log or a record cut short by the crash, which never took effect anyway
+                    break;
+                }
+                apply(registry, record);
+                replayed++;
+            }
+        } catch (IOException e) {
+            CustomPortals.LOGGER.error("Failed to replay the portal journal {}", path.getFileName(), e);
+        }
+        return replayed;
+    }
+
+    public static void append(MinecraftServer server, Map<CustomPortal, EnumSet<PortalRegistry.Change>> changes) {
+        if (!CPSettings.instance().portalJournal)
+            return;
+        try {
+            if (out == null)
+                out = open(server);
+            for (Map.Entry<CustomPortal, EnumSet<PortalRegistry.Change>> change : changes.entrySet()) {
+                NbtCompound record = toRecord(change.getKey(), change.getValue());
+                if (record != null)
+                    NbtIo.write(record, out);
+            }
+            out.flush();
+        } catch (IOException e) {
+            CustomPortals.LOGGER.error("Failed to write to the portal journal", e);
+            close(server);
+        }
+    }
+
+    /**
+     * Called after a save. A flushing save has written everything, so both logs are deleted. Otherwise the portal data
+     * may still be on its way to disk, and the current log is kept as the previous one until the next save.
+     */
+    public static void truncate(MinecraftServer server, boolean flush, boolean force) {
+        close(server);
+        Path path = getPath(server, FILE_NAME);
+        Path previous = getPath(server, PREVIOUS_FILE_NAME);
+        try {
+            if (flush) {
+                Files.deleteIfExists(path);
+                Files.deleteIfExists(previous);
+            } else if (Files.exists(path)) {
+                Files.move(path, previous, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.deleteIfExists(previous);
+            }
+        } catch (IOException e) {
+            CustomPortals.LOGGER.error("Failed to clear the portal journal", e);
+        }
+    }
+
+    public static void close(MinecraftServer server) {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            CustomPortals.LOGGER.error("Failed to close the portal journal", e);
+        }
+        out = null;
+    }
+
+    private static NbtCompound toRecord(CustomPortal portal, EnumSet<PortalRegistry.Change> changes) {
+        NbtCompound record = new NbtCompound();
+        if (changes.contains(PortalRegistry.Change.REMOVED)) {
+            record.putString("op", "remove");
+            record.putString("dimensionId", portal.getDimensionId());
+            record.putLong("anchor", portal.getAnchor().asLong());
+            return record;
+        }
+        // Links are worked out again when the portal is registered, so a link change alone is not recorded
+        if (changes.equals(EnumSet.of(PortalRegistry.Change.LINK_CHANGED)))
+            return null;
+        NbtElement portalData = CustomPortal.SAVE_CODEC.encodeStart(NbtOps.INSTANCE, portal).result().orElse(null);
+        if (portalData == null)
+            return null;
+        record.putString("op", "put");
+        record.put("portal", portalData);
+        return record;
+    }
+
+    private static void apply(PortalRegistry registry, NbtCompound record) {
+        switch (record.getString("op", "")) {
+            case "put" -> CustomPortal.CODEC.parse(NbtOps.INSTANCE, record.get("portal")).result().ifPresent(portal -> {
+                CustomPortal existing = registry.getPortal(portal.getDimensionId(), portal.getAnchor());
+                if (existing != null)
+                    registry.remove(existing);
+                registry.add(portal);
+            });
+            case "remove" -> {
+                CustomPortal existing = registry.getPortal(record.getString("dimensionId", ""), BlockPos.fromLong(record.getLong("anchor", 0L)));
+                if (existing != null)
+                    registry.remove(existing);
+            }
+            default -> CustomPortals.LOGGER.warn("Skipping unknown portal journal record {}", record);
+        }
+    }
+
+    private static DataOutputStream open(MinecraftServer server) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(getPath(server, FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+    }
+
+    private static Path getPath(MinecraftServer server, String fileName) {
+        return server.getSavePath(WorldSavePath.ROOT).resolve("data").resolve(fileName);
+    }
+}
@@ -0,0 +1,105 @@
+package dev.custom.portals.util;
+
+import dev.custom.portals.config.CPSettings;
+import dev.custom.portals.data.CustomPortal;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.client.network.ClientPlayerEntity;
+import net.minecraft.client.network.PlayerListEntry;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.World;
+
+/**
+ * Moves the local player to the partner portal as soon as a same-dimension teleport should mature, instead of waiting
+ * a round trip for the server to do it. The server stays authoritative: movement packets are held back until its
+ * position update arrives, and the player is put back where they were if none comes within the player's round trip
+ * plus a margin.
+ */
+@Environment(EnvType.CLIENT)
+public class PortalPrediction {
+
+    // Ticks the server's position update may take beyond the player's round trip before the prediction is undone
+    private static final int RECONCILE_MARGIN_TICKS = 20;
+
+    private static World world;
+    private static CustomPortal portal;
+    private static int ticksInPortal;
+    private static Vec3d origin;
+    private static int pendingTicks;
+
+    // Called every tick the player stands in a custom portal, with the portal it leads to
+    public static void tickInPortal(ClientPlayerEntity player, CustomPortal destPortal) {
+        if (!CPSettings.instance().predictLocalTeleports || isPending())
+            return;
+        if (destPortal != portal || player.getWorld() != world) {
+            world = player.getWorld();
+            portal = destPortal;
+            ticksInPortal = 0;
+        }
+        // The delay comes from the server, whose config and runes the teleport actually goes by
+        int delay = ClientUtil.transitionDelay;
+        if (++ticksInPortal < delay || delay <= 0 || !canPredict(player, destPortal))
+            return;
+        Vec3d arrival = destPortal.getArrivalPos();
+        origin = new Vec3d(player.getX(), player.getY(), player.getZ());
+        pendingTicks = getReconcileTimeout(player);
+        portal = null;
+        // Keeps the arrival portal from sending the player straight back, as the server does on its side
+        ((EntityMixinAccess)player).setArrivalGrace(destPortal, player.getWorld().getTime() + CPSettings.instance().arrivalGraceTicks);
+        player.refreshPositionAfterTeleport(arrival.x, arrival.y, arrival.z);
+    }
+
+    public static void tick(ClientPlayerEntity player) {
+        // Nothing predicted in the world the player just left applies to the new one
+        if (player.getWorld() != world) {
+            reset();
+            world = player.getWorld();
+        }
+        if (!((EntityMixinAccess)player).isInCustomPortal() && !isPending()) {
+            portal = null;
+            ticksInPortal = 0;
+        }
+        if (isPending() && --pendingTicks <= 0) {
+            // The server never moved the player, so undo the prediction
+            player.refreshPositionAfterTeleport(origin.x, origin.y, origin.z);
+            origin = null;
+        }
+    }
+
+    // Called when the server sets the player's position, which settles any outstanding prediction
+    public static void reconcile() {
+        origin = null;
+        pendingTicks = 0;
+    }
+
+    // Called on disconnect and world change, so that no prediction carries over into the next server or world
+    public static void reset() {
+        world = null;
+        portal = null;
+        ticksInPortal = 0;
+        origin = null;
+        pendingTicks = 0;
+    }
+
+    public static boolean isPending() {
+        return origin != null;
+    }
+
+    // The server's position update takes about a round trip to arrive, so the wait grows with the player's latency
+    private static int getReconcileTimeout(ClientPlayerEntity player) {
+        PlayerListEntry entry = player.networkHandler.getPlayerListEntry(player.getUuid());
+        int latency = entry == null ? 0 : Math.max(0, entry.getLatency());
+        return RECONCILE_MARGIN_TICKS + 2 * MathHelper.ceilDiv(latency, 50);
+    }
+
+    private static boolean canPredict(ClientPlayerEntity player, CustomPortal destPortal) {
+        if (player.hasVehicle() || player.hasPassengers())
+            return false;
+        if (!destPortal.getDimensionId().equals(player.getWorld().getRegistryKey().getValue().toString()))
+            return false;
+        BlockPos spawnPos = destPortal.getSpawnPos();
+        return player.getWorld().isChunkLoaded(spawnPos.getX() >> 4, spawnPos.getZ() >> 4);
+    }
+}
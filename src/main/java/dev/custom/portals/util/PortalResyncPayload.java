@@ -0,0 +1,16 @@
+package dev.custom.portals.util;
+
+import net.minecraft.network.RegistryByteBuf;
+import net.minecraft.network.codec.PacketCodec;
+import net.minecraft.network.packet.CustomPayload;
+import net.minecraft.util.Identifier;
+
+// Sent by a client that missed a portal sync, the server answers with a full PortalSyncPayload
+public record PortalResyncPayload() implements CustomPayload {
+    public static final CustomPayload.Id<PortalResyncPayload> ID = new CustomPayload.Id<>(Identifier.of("customportals", "portal_resync"));
+    public static final PacketCodec<RegistryByteBuf, PortalResyncPayload> CODEC = PacketCodec.unit(new PortalResyncPayload());
+    @Override
+    public Id<? extends CustomPayload> getId() {
+        return ID;
+    }
+}
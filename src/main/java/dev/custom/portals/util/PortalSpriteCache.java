@@ -0,0 +1,51 @@
+package dev.custom.portals.util;
+
+import dev.custom.portals.blocks.PortalBlock;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.fabricmc.fabric.api.resource.ResourceManagerHelper;
+import net.fabricmc.fabric.api.resource.SimpleSynchronousResourceReloadListener;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.texture.Sprite;
+import net.minecraft.resource.ResourceManager;
+import net.minecraft.resource.ResourceType;
+import net.minecraft.util.Identifier;
+
+import java.util.Arrays;
+
+/**
+ * Portal sprites for the HUD overlay and the loading screens, indexed by map color id. A sprite is looked up from
+ * the block models the first time its color is drawn and kept until the next resource reload.
+ */
+@Environment(EnvType.CLIENT)
+public class PortalSpriteCache {
+
+    private static final Sprite[] sprites = new Sprite[64];
+
+    public static void register() {
+        ResourceManagerHelper.get(ResourceType.CLIENT_RESOURCES).registerReloadListener(new SimpleSynchronousResourceReloadListener() {
+            @Override
+            public Identifier getFabricId() {
+                return Identifier.of("customportals", "portal_sprites");
+            }
+
+            @Override
+            public void reload(ResourceManager manager) {
+                Arrays.fill(sprites, null);
+            }
+        });
+    }
+
+    public static Sprite get(int colorId) {
+        Sprite sprite = sprites[colorId];
+        if (sprite == null) {
+            Block block = PortalHelper.getPortalBlockFromColorId(colorId);
+            BlockState state = block instanceof PortalBlock ? block.getDefaultState().with(PortalBlock.LIT, true) : block.getDefaultState();
+            sprite = MinecraftClient.getInstance().getBlockRenderManager().getModels().getModelParticleSprite(state);
+            sprites[colorId] = sprite;
+        }
+        return sprite;
+    }
+}
@@ -0,0 +1,101 @@
+package dev.custom.portals.util;
+
+import dev.custom.portals.CustomPortals;
+import dev.custom.portals.blocks.PortalBlock;
+import dev.custom.portals.config.CPSettings;
+import dev.custom.portals.data.CustomPortal;
+import dev.custom.portals.data.PortalRegistry;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkSectionPos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks registered portals against the world a few at a time, within a per-tick time budget. Portal blocks can
+ * disappear without the mod noticing, for example through world editing tools or chunk regeneration. A portal with
+ * none of its blocks left is unregistered. A portal with only some left is unregistered and its remaining blocks are
+ * removed, as if it had been broken. Portals in chunks that are not loaded are skipped until a later pass.
+ */
+public class PortalSweeper {
+
+    // Totals since startup, read by whatever wants to report on the sweeper
+    private static final AtomicLong checked = new AtomicLong();
+    private static final AtomicLong orphaned = new AtomicLong();
+    private static final AtomicLong partial = new AtomicLong();
+
+    private static int cursor;
+
+    public static void tick(MinecraftServer server) {
+        long budget = CPSettings.instance().sweeperBudgetMicros * 1000L;
+        if (budget <= 0)
+            return;
+        PortalRegistry registry = CustomPortals.PORTALS.get(server.getOverworld()).getPortalRegistry();
+        List<CustomPortal> portals = registry.getPortals();
+        if (portals.isEmpty())
+            return;
+        long start = System.nanoTime();
+        boolean changed = false;
+        // Each portal is looked at once per pass at most, however large the budget
+        for (int i = 0; i < portals.size() && System.nanoTime() - start < budget; i++) {
+            if (cursor >= portals.size())
+                cursor = 0;
+            // The list is a snapshot, so portals removed since it was taken are still in it
+            CustomPortal portal = portals.get(cursor++);
+            if (portal.isRegistered() && sweep(server, registry, portal))
+                changed = true;
+        }
+        if (changed)
+            CustomPortals.PORTALS.get(server.getOverworld()).syncWithAll(server);
+    }
+
+    public static long getChecked() { return checked.get(); }
+
+    public static long getOrphaned() { return orphaned.get(); }
+
+    public static long getPartial() { return partial.get(); }
+
+    public static void clear(MinecraftServer server) {
+        cursor = 0;
+    }
+
+    // Returns whether the portal was unregistered
+    private static boolean sweep(MinecraftServer server, PortalRegistry registry, CustomPortal portal) {
+        ServerWorld world = PortalHelper.getWorldFromDimensionId(server, portal.getDimensionId());
+        if (world == null || !isLoaded(world, portal.getAnchor()))
+            return false;
+        List<BlockPos> remaining = new ArrayList<>();
+        for (BlockPos pos : portal.getPortalBlocks()) {
+            if (!isLoaded(world, pos))
+                return false;
+            BlockState state = world.getBlockState(pos);
+            if (state.getBlock() instanceof PortalBlock && state.getBlock().getDefaultMapColor() == portal.getColor())
+                remaining.add(pos);
+        }
+        checked.incrementAndGet();
+        if (remaining.size() == portal.getPortalBlocks().size())
+            return false;
+        registry.unregister(portal);
+        if (remaining.isEmpty()) {
+            orphaned.incrementAndGet();
+            CustomPortals.LOGGER.info("Removed portal at {} in {}, its blocks are gone", CustomPortals.blockPosToString(portal.getAnchor()), portal.getDimensionId());
+        } else {
+            partial.incrementAndGet();
+            CustomPortals.LOGGER.info("Removed portal at {} in {}, {} of its {} blocks are gone", CustomPortals.blockPosToString(portal.getAnchor()),
+                    portal.getDimensionId(), portal.getPortalBlocks().size() - remaining.size(), portal.getPortalBlocks().size());
+            for (BlockPos pos : remaining)
+                world.setBlockState(pos, Blocks.AIR.getDefaultState(), Block.NOTIFY_ALL);
+        }
+        return true;
+    }
+
+    private static boolean isLoaded(ServerWorld world, BlockPos pos) {
+        return world.isChunkLoaded(ChunkSectionPos.getSectionCoord(pos.getX()), ChunkSectionPos.getSectionCoord(pos.getZ()));
+    }
+}
@@ -0,0 +1,221 @@
+package dev.custom.portals.util;
+
+import dev.custom.portals.data.CustomPortal;
+import dev.custom.portals.data.PortalRegistry;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.network.RegistryByteBuf;
+import net.minecraft.network.codec.PacketCodec;
+import net.minecraft.network.packet.CustomPayload;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Portal registry changes sent to a client. A full payload replaces the client's registry and is also what joining
+ * players receive; any other payload only carries the portals that were added, removed, relinked, or had their runes
+ * or spawn changed. Portals are identified by their dimension and their first portal block.
+ */
+public record PortalSyncPayload(int sequence, boolean full, List<Entry> entries) implements CustomPayload {
+    public static final CustomPayload.Id<PortalSyncPayload> ID = new CustomPayload.Id<>(Identifier.of("customportals", "portal_sync"));
+    public static final PacketCodec<RegistryByteBuf, PortalSyncPayload> CODEC = CustomPayload.codecOf(PortalSyncPayload::write, PortalSyncPayload::new);
+
+    public sealed interface Entry permits Added, Removed, LinkChanged, RunesChanged, SpawnChanged {}
+    public record Added(CustomPortal portal) implements Entry {}
+    public record Removed(String dimensionId, BlockPos anchor) implements Entry {}
+    public record LinkChanged(String dimensionId, BlockPos anchor, @Nullable String linkedDimensionId, @Nullable BlockPos linkedAnchor) implements Entry {}
+    public record RunesChanged(String dimensionId, BlockPos anchor, int hasteRunes, int gateRunes, int weakEnhancerRunes,
+                               int strongEnhancerRunes, int infinityRunes) implements Entry {}
+    public record SpawnChanged(String dimensionId, BlockPos anchor, BlockPos spawnPos, float offsetX, float offsetZ) implements Entry {}
+
+    public PortalSyncPayload(PacketByteBuf buf) {
+        this(buf.readVarInt(), buf.readBoolean(), readEntries(buf));
+    }
+
+    public static PortalSyncPayload full(Collection<CustomPortal> portals, int sequence) {
+        List<Entry> entries = new ArrayList<>();
+        for (CustomPortal portal : portals)
+            entries.add(new Added(portal));
+        for (CustomPortal portal : portals) {
+            if (portal.hasLinked())
+                entries.add(linkChanged(portal));
+        }
+        return new PortalSyncPayload(sequence, true, entries);
+    }
+
+    public static Removed removed(CustomPortal portal) {
+        return new Removed(portal.getDimensionId(), portal.getAnchor());
+    }
+
+    public static LinkChanged linkChanged(CustomPortal portal) {
+        CustomPortal linked = portal.getLinked();
+        return new LinkChanged(portal.getDimensionId(), portal.getAnchor(),
+                linked == null ? null : linked.getDimensionId(), linked == null ? null : linked.getAnchor());
+    }
+
+    public static RunesChanged runesChanged(CustomPortal portal) {
+        return new RunesChanged(portal.getDimensionId(), portal.getAnchor(), portal.getHasteRunes(), portal.getGateRunes(),
+                portal.getWeakEnhancerRunes(), portal.getStrongEnhancerRunes(), portal.getInfinityRunes());
+    }
+
+    public static SpawnChanged spawnChanged(CustomPortal portal) {
+        return new SpawnChanged(portal.getDimensionId(), portal.getAnchor(), portal.getSpawnPos(), portal.getOffsetX(), portal.getOffsetZ());
+    }
+
+    public void applyTo(PortalRegistry registry) {
+        if (full)
+            registry.clear();
+        for (Entry entry : entries) {
+            switch (entry) {
+                case Added added -> {
+                    // Replaces the copy the client registered itself when it built the portal
+                    CustomPortal existing = registry.getPortal(added.portal().getDimensionId(), added.portal().getAnchor());
+                    if (existing != null)
+                        registry.remove(existing);
+                    registry.add(added.portal());
+                }
+                case Removed removed -> {
+                    CustomPortal portal = registry.getPortal(removed.dimensionId(), removed.anchor());
+                    if (portal != null)
+                        registry.remove(portal);
+                }
+                case LinkChanged linkChanged -> {
+                    CustomPortal portal = registry.getPortal(linkChanged.dimensionId(), linkChanged.anchor());
+                    if (portal != null)
+                        portal.setLinked(linkChanged.linkedAnchor() == null ? null
+                                : registry.getPortal(linkChanged.linkedDimensionId(), linkChanged.linkedAnchor()));
+                }
+                case RunesChanged runesChanged -> {
+                    CustomPortal portal = registry.getPortal(runesChanged.dimensionId(), runesChanged.anchor());
+                    if (portal != null)
+                        portal.setRunes(runesChanged.hasteRunes(), runesChanged.gateRunes(), runesChanged.weakEnhancerRunes(),
+                                runesChanged.strongEnhancerRunes(), runesChanged.infinityRunes());
+                }
+                case SpawnChanged spawnChanged -> {
+                    CustomPortal portal = registry.getPortal(spawnChanged.dimensionId(), spawnChanged.anchor());
+                    if (portal != null)
+                        portal.setSpawn(spawnChanged.spawnPos(), spawnChanged.offsetX(), spawnChanged.offsetZ());
+                }
+            }
+        }
+    }
+
+    public void write(PacketByteBuf buf) {
+        buf.writeVarInt(sequence);
+        buf.writeBoolean(full);
+        buf.writeVarInt(entries.size());
+        for (Entry entry : entries) {
+            switch (entry) {
+                case Added added -> {
+                    buf.writeByte(0);
+                    writePortal(buf, added.portal());
+                }
+                case Removed removed -> {
+                    buf.writeByte(1);
+                    buf.writeString(removed.dimensionId());
+                    buf.writeLong(removed.anchor().asLong());
+                }
+                case LinkChanged linkChanged -> {
+                    buf.writeByte(2);
+                    buf.writeString(linkChanged.dimensionId());
+                    buf.writeLong(linkChanged.anchor().asLong());
+                    buf.writeBoolean(linkChanged.linkedAnchor() != null);
+                    if (linkChanged.linkedAnchor() != null) {
+                        buf.writeString(linkChanged.linkedDimensionId());
+                        buf.writeLong(linkChanged.linkedAnchor().asLong());
+                    }
+                }
+                case RunesChanged runesChanged -> {
+                    buf.writeByte(3);
+                    buf.writeString(runesChanged.dimensionId());
+                    buf.writeLong(runesChanged.anchor().asLong());
+                    buf.writeVarInt(runesChanged.hasteRunes());
+                    buf.writeVarInt(runesChanged.gateRunes());
+                    buf.writeVarInt(runesChanged.weakEnhancerRunes());
+                    buf.writeVarInt(runesChanged.strongEnhancerRunes());
+                    buf.writeVarInt(runesChanged.infinityRunes());
+                }
+                case SpawnChanged spawnChanged -> {
+                    buf.writeByte(4);
+                    buf.writeString(spawnChanged.dimensionId());
+                    buf.writeLong(spawnChanged.anchor().asLong());
+                    buf.writeLong(spawnChanged.spawnPos().asLong());
+                    buf.writeFloat(spawnChanged.offsetX());
+                    buf.writeFloat(spawnChanged.offsetZ());
+                }
+            }
+        }
+    }
+
+    private static List<Entry> readEntries(PacketByteBuf buf) {
+        int size = buf.readVarInt();
+        List<Entry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            byte type = buf.readByte();
+            switch (type) {
+                case 0 -> entries.add(new Added(readPortal(buf)));
+                case 1 -> entries.add(new Removed(buf.readString(), BlockPos.fromLong(buf.readLong())));
+                case 2 -> {
+                    String dimensionId = buf.readString();
+                    BlockPos anchor = BlockPos.fromLong(buf.readLong());
+                    if (buf.readBoolean())
+                        entries.add(new LinkChanged(dimensionId, anchor, buf.readString(), BlockPos.fromLong(buf.readLong())));
+                    else entries.add(new LinkChanged(dimensionId, anchor, null, null));
+                }
+                case 3 -> entries.add(new RunesChanged(buf.readString(), BlockPos.fromLong(buf.readLong()), buf.readVarInt(),
+                        buf.readVarInt(), buf.readVarInt(), buf.readVarInt(), buf.readVarInt()));
+                case 4 -> entries.add(new SpawnChanged(buf.readString(), BlockPos.fromLong(buf.readLong()),
+                        BlockPos.fromLong(buf.readLong()), buf.readFloat(), buf.readFloat()));
+                default -> throw new IllegalArgumentException("Unknown portal sync entry type " + type);
+            }
+        }
+        return entries;
+    }
+
+    private static void writePortal(PacketByteBuf buf, CustomPortal portal) {
+        buf.writeString(portal.getFrameId());
+        buf.writeString(portal.getDimensionId());
+        buf.writeVarInt(portal.getColorId());
+        buf.writeLong(portal.getSpawnPos().asLong());
+        buf.writeFloat(portal.getOffsetX());
+        buf.writeFloat(portal.getOffsetZ());
+        buf.writeUuid(portal.getCreatorId());
+        buf.writeVarInt(portal.getHasteRunes());
+        buf.writeVarInt(portal.getGateRunes());
+        buf.writeVarInt(portal.getWeakEnhancerRunes());
+        buf.writeVarInt(portal.getStrongEnhancerRunes());
+        buf.writeVarInt(portal.getInfinityRunes());
+        buf.writeVarInt(portal.getPortalBlocks().size());
+        for (BlockPos blockPos : portal.getPortalBlocks())
+            buf.writeLong(blockPos.asLong());
+    }
+
+    private static CustomPortal readPortal(PacketByteBuf buf) {
+        String frameId = buf.readString();
+        String dimensionId = buf.readString();
+        int colorId = buf.readVarInt();
+        BlockPos spawnPos = BlockPos.fromLong(buf.readLong());
+        float offsetX = buf.readFloat();
+        float offsetZ = buf.readFloat();
+        String creatorId = buf.readUuid().toString();
+        int hasteRunes = buf.readVarInt();
+        int gateRunes = buf.readVarInt();
+        int weakEnhancerRunes = buf.readVarInt();
+        int strongEnhancerRunes = buf.readVarInt();
+        int infinityRunes = buf.readVarInt();
+        int size = buf.readVarInt();
+        List<BlockPos> portalBlocks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            portalBlocks.add(BlockPos.fromLong(buf.readLong()));
+        return new CustomPortal(frameId, dimensionId, colorId, spawnPos, portalBlocks, offsetX, offsetZ, creatorId,
+                hasteRunes, gateRunes, weakEnhancerRunes, strongEnhancerRunes, infinityRunes);
+    }
+
+    @Override
+    public Id<? extends CustomPayload> getId() {
+        return ID;
+    }
+}
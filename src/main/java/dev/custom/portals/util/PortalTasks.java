@@ -0,0 +1,32 @@
+package dev.custom.portals.util;
+
+import net.minecraft.server.MinecraftServer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hands portal changes that reach beyond one world over to the server thread. With mods that tick worlds in
+ * parallel, a world's thread may only change its own portals. Linking, which changes portals in other worlds too, and
+ * syncing, which touches every world, are queued here instead and run in order at the end of the tick, once the
+ * worlds are done. On the server thread itself they run straight away.
+ */
+public class PortalTasks {
+
+    private static final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+
+    public static void run(MinecraftServer server, Runnable task) {
+        if (server.isOnThread())
+            task.run();
+        else queue.add(task);
+    }
+
+    public static void tick(MinecraftServer server) {
+        Runnable task;
+        while ((task = queue.poll()) != null)
+            task.run();
+    }
+
+    public static void clear(MinecraftServer server) {
+        queue.clear();
+    }
+}
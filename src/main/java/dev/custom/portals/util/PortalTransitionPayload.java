@@ -0,0 +1,59 @@
+package dev.custom.portals.util;
+
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.network.RegistryByteBuf;
+import net.minecraft.network.codec.PacketCodec;
+import net.minecraft.network.packet.CustomPayload;
+
+/**
+ * Portal transition state, sent both ways. The server sends ENTER with the portal color and the player's teleport
+ * delay when a player starts standing in a custom portal, again whenever either changes, and EXIT once the overlay
+ * should go away. The client answers with SCREEN_OPENED and
+ * SCREEN_CLOSED around the world loading screen, echoing the sequence of the transition it is showing. FLASH is sent
+ * instead of a loading screen when the player was teleported in place.
+ */
+public record PortalTransitionPayload(int version, int colorId, State state, int sequence, int delay) implements CustomPayload {
+    public static final int VERSION = 3;
+    public static final CustomPayload.Id<PortalTransitionPayload> ID = new CustomPayload.Id<>(PortalHelper.TRANSITION_PACKET_ID);
+    public static final PacketCodec<RegistryByteBuf, PortalTransitionPayload> CODEC = CustomPayload.codecOf(PortalTransitionPayload::write, PortalTransitionPayload::read);
+
+    public enum State { ENTER, EXIT, SCREEN_OPENED, SCREEN_CLOSED, FLASH }
+
+    public PortalTransitionPayload(int colorId, State state, int sequence) {
+        this(VERSION, colorId, state, sequence, 0);
+    }
+
+    public PortalTransitionPayload(int colorId, State state, int sequence, int delay) {
+        this(VERSION, colorId, state, sequence, delay);
+    }
+
+    /**
+     * Reads the version before anything else. A payload from another version may be laid out differently, so the rest
+     * of it is skipped and an unsupported payload without a state is returned in its place.
+     */
+    public static PortalTransitionPayload read(PacketByteBuf buf) {
+        int version = buf.readByte();
+        if (version != VERSION) {
+            buf.skipBytes(buf.readableBytes());
+            return new PortalTransitionPayload(version, 0, null, 0, 0);
+        }
+        return new PortalTransitionPayload(version, buf.readVarInt(), buf.readEnumConstant(State.class), buf.readVarInt(), buf.readVarInt());
+    }
+
+    public void write(PacketByteBuf buf) {
+        buf.writeByte(version);
+        buf.writeVarInt(colorId);
+        buf.writeEnumConstant(state);
+        buf.writeVarInt(sequence);
+        buf.writeVarInt(delay);
+    }
+
+    public boolean isSupported() {
+        return version == VERSION;
+    }
+
+    @Override
+    public Id<? extends CustomPayload> getId() {
+        return ID;
+    }
+}
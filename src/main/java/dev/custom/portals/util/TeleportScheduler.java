@@ -0,0 +1,91 @@
+package dev.custom.portals.util;
+
+import dev.custom.portals.CustomPortals;
+import dev.custom.portals.blocks.PortalBlock;
+import dev.custom.portals.config.CPSettings;
+import dev.custom.portals.data.CustomPortal;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.world.TeleportTarget;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Spreads the teleports of mobs and items over several ticks. Each portal keeps its own queue, and the queues are
+ * served in turns, one teleport each, until the per-tick time budget is spent. Players, and vehicles carrying
+ * players, are never queued.
+ */
+public class TeleportScheduler {
+
+    // Held weakly, so that entities removed or unloaded while they wait are not kept alive by the queue
+    private record QueuedTeleport(ServerWorld world, WeakReference<Entity> entity) {}
+
+    private static final Map<CustomPortal, ArrayDeque<QueuedTeleport>> queues = new IdentityHashMap<>();
+    // Portals with a non-empty queue, in the order they are served
+    private static final ArrayDeque<CustomPortal> turns = new ArrayDeque<>();
+    private static final Set<Entity> queued = Collections.newSetFromMap(new WeakHashMap<>());
+
+    public static boolean shouldQueue(Entity entity) {
+        return CPSettings.instance().teleportBudgetMicros > 0 && !(entity instanceof PlayerEntity) && !entity.hasPlayerRider();
+    }
+
+    // Called from the thread of the entity's world, and worlds may tick in parallel
+    public static synchronized void enqueue(ServerWorld world, CustomPortal portal, Entity entity) {
+        if (!queued.add(entity))
+            return;
+        ArrayDeque<QueuedTeleport> queue = queues.computeIfAbsent(portal, p -> new ArrayDeque<>());
+        if (queue.isEmpty())
+            turns.add(portal);
+        queue.add(new QueuedTeleport(world, new WeakReference<>(entity)));
+    }
+
+    public static synchronized void tick(MinecraftServer server) {
+        if (turns.isEmpty())
+            return;
+        long budget = CPSettings.instance().teleportBudgetMicros * 1000L;
+        long start = System.nanoTime();
+        // At least one teleport runs every tick, so the queues always drain eventually
+        do {
+            CustomPortal portal = turns.poll();
+            ArrayDeque<QueuedTeleport> queue = queues.get(portal);
+            QueuedTeleport next = queue.poll();
+            if (queue.isEmpty())
+                queues.remove(portal);
+            else turns.add(portal);
+            Entity entity = next.entity().get();
+            if (entity == null)
+                continue;
+            queued.remove(entity);
+            teleport(server, portal, next.world(), entity);
+        } while (!turns.isEmpty() && System.nanoTime() - start < budget);
+    }
+
+    public static synchronized void clear(MinecraftServer server) {
+        queues.clear();
+        turns.clear();
+        queued.clear();
+    }
+
+    private static void teleport(MinecraftServer server, CustomPortal portal, ServerWorld world, Entity entity) {
+        // The entity may have died, changed worlds, or boarded something since it was queued
+        if (entity.isRemoved() || entity.getWorld() != world || entity.hasVehicle())
+            return;
+        // The portal may have been broken in the meantime
+        if (CustomPortals.PORTALS.get(world).getPortalFromPos(portal.getSpawnPos()) != portal)
+            return;
+        TeleportTarget target = PortalBlock.createCustomTeleportTarget(world, entity, portal);
+        if (target == null)
+            return;
+        ServerWorld destWorld = target.world();
+        if (server.isWorldAllowed(destWorld) && (destWorld == world || entity.canTeleportBetween(world, destWorld)))
+            entity.teleportTo(target);
+    }
+}
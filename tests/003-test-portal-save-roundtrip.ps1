@@ -0,0 +1,504 @@
+# Test 003: Portal Save Round Trip
+# Purpose: Validates that portal blocks saved in the old list format load, are saved again as a bitmask, and load back
+# Expected: Every portal survives both loads with the same blocks, its anchor comes back first, the bitmask save is smaller
+# Failure: Portals lost or changed, still saved as a list, anchor not first, codec errors in the server log
+
+param(
+    [string]$MinecraftVersion = "1.21.8",
+    [int]$TimeoutSeconds = 180,
+    [int]$PortalCount = 200,
+    [int]$PortalSize = 21
+)
+
+$ErrorActionPreference = "Stop"
+$TestName = "003-test-portal-save-roundtrip"
+
+# Setup logging - isolated folder per test
+$scriptPath = Split-Path -Parent $MyInvocation.MyCommand.Path
+$projectRoot = Split-Path -Parent $scriptPath
+$testOutputDir = Join-Path $scriptPath "test-output" $TestName
+if (-not (Test-Path $testOutputDir)) {
+    New-Item -ItemType Directory -Path $testOutputDir -Force | Out-Null
+}
+
+$timestamp = Get-Date -Format "yyyy-MM-dd_HH-mm-ss"
+$logFile = Join-Path $testOutputDir "${MinecraftVersion}-${timestamp}.log"
+
+$RconPort = 25575
+$RconPassword = "customportals-test"
+# Far from spawn, so the chunks are never loaded and the sweeper leaves the portals alone
+$PortalOriginX = 100000
+$PortalOriginZ = 100000
+$PortalBaseY = 70
+
+function Write-TestLog {
+    param([string]$Message)
+    $ts = Get-Date -Format "HH:mm:ss"
+    $msg = "[$ts] $Message"
+    Write-Host $msg
+    Add-Content -Path $logFile -Value $msg
+}
+
+# --- NBT ---
+# Tags are kept as @{ Type; Value }. Compounds hold an ordered dictionary of tags, lists an element type and tags.
+
+function New-NbtTag([int]$Type, $Value) {
+    return [pscustomobject]@{ Type = $Type; Value = $Value }
+}
+
+function New-NbtList([int]$ElementType) {
+    return New-NbtTag 9 ([pscustomobject]@{ ElementType = $ElementType; Items = [System.Collections.Generic.List[object]]::new() })
+}
+
+function Read-BigEndian([System.IO.BinaryReader]$Reader, [int]$Count) {
+    $bytes = $Reader.ReadBytes($Count)
+    if ($bytes.Length -ne $Count) { throw "Unexpected end of NBT data" }
+    if ([BitConverter]::IsLittleEndian) { [Array]::Reverse($bytes) }
+    return ,$bytes
+}
+
+function Write-BigEndian([System.IO.BinaryWriter]$Writer, [byte[]]$Bytes) {
+    if ([BitConverter]::IsLittleEndian) { [Array]::Reverse($Bytes) }
+    $Writer.Write($Bytes)
+}
+
+function Read-NbtString([System.IO.BinaryReader]$Reader) {
+    $length = [BitConverter]::ToUInt16((Read-BigEndian $Reader 2), 0)
+    return [System.Text.Encoding]::UTF8.GetString($Reader.ReadBytes($length))
+}
+
+function Write-NbtString([System.IO.BinaryWriter]$Writer, [string]$Value) {
+    $bytes = [System.Text.Encoding]::UTF8.GetBytes($Value)
+    Write-BigEndian $Writer ([BitConverter]::GetBytes([uint16]$bytes.Length))
+    $Writer.Write($bytes)
+}
+
+function Read-NbtPayload([System.IO.BinaryReader]$Reader, [int]$Type) {
+    switch ($Type) {
+        1 { return $Reader.ReadSByte() }
+        2 { return [BitConverter]::ToInt16((Read-BigEndian $Reader 2), 0) }
+        3 { return [BitConverter]::ToInt32((Read-BigEndian $Reader 4), 0) }
+        4 { return [BitConverter]::ToInt64((Read-BigEndian $Reader 8), 0) }
+        5 { return [BitConverter]::ToSingle((Read-BigEndian $Reader 4), 0) }
+        6 { return [BitConverter]::ToDouble((Read-BigEndian $Reader 8), 0) }
+        7 {
+            $length = [BitConverter]::ToInt32((Read-BigEndian $Reader 4), 0)
+            return ,$Reader.ReadBytes($length)
+        }
+        8 { return Read-NbtString $Reader }
+        9 {
+            $list = New-NbtList $Reader.ReadByte()
+            $length = [BitConverter]::ToInt32((Read-BigEndian $Reader 4), 0)
+            for ($i = 0; $i -lt $length; $i++) {
+                $list.Value.Items.Add((New-NbtTag $list.Value.ElementType (Read-NbtPayload $Reader $list.Value.ElementType)))
+            }
+            return $list.Value
+        }
+        10 {
+            $compound = [ordered]@{}
+            while (($tagType = $Reader.ReadByte()) -ne 0) {
+                $name = Read-NbtString $Reader
+                $compound[$name] = New-NbtTag $tagType (Read-NbtPayload $Reader $tagType)
+            }
+            return $compound
+        }
+        11 {
+            $length = [BitConverter]::ToInt32((Read-BigEndian $Reader 4), 0)
+            $values = [int[]]::new($length)
+            for ($i = 0; $i -lt $length; $i++) { $values[$i] = [BitConverter]::ToInt32((Read-BigEndian $Reader 4), 0) }
+            return ,$values
+        }
+        12 {
+            $length = [BitConverter]::ToInt32((Read-BigEndian $Reader 4), 0)
+            $values = [long[]]::new($length)
+            for ($i = 0; $i -lt $length; $i++) { $values[$i] = [BitConverter]::ToInt64((Read-BigEndian $Reader 8), 0) }
+            return ,$values
+        }
+        default { throw "Unknown NBT tag type $Type" }
+    }
+}
+
+function Write-NbtPayload([System.IO.BinaryWriter]$Writer, $Tag) {
+    switch ($Tag.Type) {
+        1 { $Writer.Write([sbyte]$Tag.Value) }
+        2 { Write-BigEndian $Writer ([BitConverter]::GetBytes([int16]$Tag.Value)) }
+        3 { Write-BigEndian $Writer ([BitConverter]::GetBytes([int]$Tag.Value)) }
+        4 { Write-BigEndian $Writer ([BitConverter]::GetBytes([long]$Tag.Value)) }
+        5 { Write-BigEndian $Writer ([BitConverter]::GetBytes([single]$Tag.Value)) }
+        6 { Write-BigEndian $Writer ([BitConverter]::GetBytes([double]$Tag.Value)) }
+        7 {
+            Write-BigEndian $Writer ([BitConverter]::GetBytes([int]$Tag.Value.Length))
+            $Writer.Write([byte[]]$Tag.Value)
+        }
+        8 { Write-NbtString $Writer $Tag.Value }
+        9 {
+            $Writer.Write([byte]$Tag.Value.ElementType)
+            Write-BigEndian $Writer ([BitConverter]::GetBytes([int]$Tag.Value.Items.Count))
+            foreach ($item in $Tag.Value.Items) { Write-NbtPayload $Writer $item }
+        }
+        10 {
+            foreach ($entry in $Tag.Value.GetEnumerator()) {
+                $Writer.Write([byte]$entry.Value.Type)
+                Write-NbtString $Writer $entry.Key
+                Write-NbtPayload $Writer $entry.Value
+            }
+            $Writer.Write([byte]0)
+        }
+        11 {
+            Write-BigEndian $Writer ([BitConverter]::GetBytes([int]$Tag.Value.Length))
+            foreach ($value in $Tag.Value) { Write-BigEndian $Writer ([BitConverter]::GetBytes([int]$value)) }
+        }
+        12 {
+            Write-BigEndian $Writer ([BitConverter]::GetBytes([int]$Tag.Value.Length))
+            foreach ($value in $Tag.Value) { Write-BigEndian $Writer ([BitConverter]::GetBytes([long]$value)) }
+        }
+        default { throw "Unknown NBT tag type $($Tag.Type)" }
+    }
+}
+
+function Read-NbtFile([string]$Path) {
+    $reader = [System.IO.BinaryReader]::new([System.IO.Compression.GZipStream]::new([System.IO.File]::OpenRead($Path), [System.IO.Compression.CompressionMode]::Decompress))
+    try {
+        $type = $reader.ReadByte()
+        $name = Read-NbtString $reader
+        return [pscustomobject]@{ Name = $name; Tag = (New-NbtTag $type (Read-NbtPayload $reader $type)) }
+    } finally {
+        $reader.Dispose()
+    }
+}
+
+function Write-NbtFile([string]$Path, $Root) {
+    $writer = [System.IO.BinaryWriter]::new([System.IO.Compression.GZipStream]::new([System.IO.File]::Create($Path), [System.IO.Compression.CompressionMode]::Compress))
+    try {
+        $writer.Write([byte]$Root.Tag.Type)
+        Write-NbtString $writer $Root.Name
+        Write-NbtPayload $writer $Root.Tag
+    } finally {
+        $writer.Dispose()
+    }
+}
+
+# Size of a tag as it is written, before compression
+function Get-NbtSize($Tag) {
+    $stream = [System.IO.MemoryStream]::new()
+    $writer = [System.IO.BinaryWriter]::new($stream)
+    Write-NbtPayload $writer $Tag
+    $writer.Flush()
+    $size = $stream.Length
+    $writer.Dispose()
+    return $size
+}
+
+# The component is looked up by id, wherever Cardinal Components puts it in the file
+function Find-PortalList($Tag) {
+    if ($Tag.Type -eq 10) {
+        foreach ($entry in $Tag.Value.GetEnumerator()) {
+            if ($entry.Key -eq "customportals:portals" -and $entry.Value.Type -eq 10 -and $entry.Value.Value.Contains("portals")) {
+                return $entry.Value.Value["portals"]
+            }
+            $found = Find-PortalList $entry.Value
+            if ($found) { return $found }
+        }
+    } elseif ($Tag.Type -eq 9 -and $Tag.Value.ElementType -eq 10) {
+        foreach ($item in $Tag.Value.Items) {
+            $found = Find-PortalList $item
+            if ($found) { return $found }
+        }
+    }
+    return $null
+}
+
+function Find-PortalDataFile([string]$WorldDir) {
+    # Only the overworld's copy is read back, every world shares its registry
+    foreach ($file in Get-ChildItem -Path (Join-Path $WorldDir "data") -Filter "*.dat" -ErrorAction SilentlyContinue) {
+        try {
+            $root = Read-NbtFile $file.FullName
+        } catch {
+            continue
+        }
+        $list = Find-PortalList $root.Tag
+        if ($list) { return [pscustomobject]@{ Path = $file.FullName; Root = $root; List = $list } }
+    }
+    return $null
+}
+
+# --- Portals ---
+
+function Get-PortalKey([int[]]$Pos) {
+    return "$($Pos[0]),$($Pos[1]),$($Pos[2])"
+}
+
+# A flat portal facing Z whose anchor is a block in the middle, so that it is not the first block of the bitmask
+function New-LegacyPortal([int]$Index) {
+    $x0 = $PortalOriginX + $Index * 64
+    $anchor = [int[]]@(($x0 + [math]::Floor($PortalSize / 2)), ($PortalBaseY + [math]::Floor($PortalSize / 2)), $PortalOriginZ)
+    $blocks = New-NbtList 11
+    $blocks.Value.Items.Add((New-NbtTag 11 $anchor))
+    for ($y = 0; $y -lt $PortalSize; $y++) {
+        for ($x = 0; $x -lt $PortalSize; $x++) {
+            $pos = [int[]]@(($x0 + $x), ($PortalBaseY + $y), $PortalOriginZ)
+            if ((Get-PortalKey $pos) -ne (Get-PortalKey $anchor)) {
+                $blocks.Value.Items.Add((New-NbtTag 11 $pos))
+            }
+        }
+    }
+    $portal = [ordered]@{}
+    $portal["frameId"] = New-NbtTag 8 "block.minecraft.obsidian"
+    $portal["dimensionId"] = New-NbtTag 8 "minecraft:overworld"
+    $portal["color"] = New-NbtTag 3 24
+    $portal["spawnPos"] = New-NbtTag 11 ([int[]]@(($x0 + 1), $PortalBaseY, $PortalOriginZ))
+    $portal["portalBlocks"] = $blocks
+    $portal["offsetX"] = New-NbtTag 5 0.5
+    $portal["offsetZ"] = New-NbtTag 5 0.5
+    $portal["creatorId"] = New-NbtTag 8 "00000000-0000-0000-0000-000000000000"
+    foreach ($runes in "hasteRunes", "gateRunes", "weakEnhancerRunes", "strongEnhancerRunes", "infinityRunes") {
+        $portal[$runes] = New-NbtTag 3 0
+    }
+    return New-NbtTag 10 $portal
+}
+
+# Returns the portal's blocks in saved order, whichever layout they were saved in
+function Get-PortalBlocks($Portal) {
+    $saved = $Portal.Value["portalBlocks"]
+    if ($saved.Type -eq 9) {
+        return ,@($saved.Value.Items | ForEach-Object { Get-PortalKey $_.Value })
+    }
+    $origin = $saved.Value["origin"].Value
+    $size = $saved.Value["size"].Value
+    $mask = $saved.Value["mask"].Value
+    $first = $saved.Value["first"].Value
+    $toKey = {
+        param([int]$i)
+        $x = $i % $size[0]
+        $z = [math]::Floor($i / $size[0]) % $size[2]
+        $y = [math]::Floor([math]::Floor($i / $size[0]) / $size[2])
+        Get-PortalKey ([int[]]@(($origin[0] + $x), ($origin[1] + $y), ($origin[2] + $z)))
+    }
+    $blocks = [System.Collections.Generic.List[string]]::new()
+    $blocks.Add((& $toKey $first))
+    for ($i = 0; $i -lt $size[0] * $size[1] * $size[2]; $i++) {
+        if ($i -ne $first -and ($mask[$i -shr 6] -band ([long]1 -shl ($i -band 63))) -ne 0) {
+            $blocks.Add((& $toKey $i))
+        }
+    }
+    return ,$blocks.ToArray()
+}
+
+# Checks every expected portal is in the saved list as a bitmask, with the same blocks and its anchor first
+function Test-SavedPortals($List, $Expected) {
+    $ok = $true
+    $byAnchor = @{}
+    foreach ($portal in $List.Value.Items) {
+        if ($portal.Value["portalBlocks"].Type -ne 10) {
+            Write-TestLog "Portal still saved as a list: spawn $($portal.Value["spawnPos"].Value -join ',')"
+            $ok = $false
+            continue
+        }
+        $blocks = Get-PortalBlocks $portal
+        $byAnchor[$blocks[0]] = $blocks
+    }
+    foreach ($anchor in $Expected.Keys) {
+        $blocks = $byAnchor[$anchor]
+        if (-not $blocks) {
+            Write-TestLog "Portal missing, or its anchor is no longer first: $anchor"
+            $ok = $false
+        } elseif (Compare-Object ($blocks | Sort-Object) ($Expected[$anchor] | Sort-Object)) {
+            Write-TestLog "Portal blocks changed: $anchor"
+            $ok = $false
+        }
+    }
+    if ($List.Value.Items.Count -ne $Expected.Count) {
+        Write-TestLog "Expected $($Expected.Count) portals, found $($List.Value.Items.Count)"
+        $ok = $false
+    }
+    return $ok
+}
+
+# --- Server ---
+
+function Read-Exact([System.IO.Stream]$Stream, [int]$Count) {
+    $buffer = [byte[]]::new($Count)
+    $read = 0
+    while ($read -lt $Count) {
+        $n = $Stream.Read($buffer, $read, $Count - $read)
+        if ($n -le 0) { throw "RCON connection closed" }
+        $read += $n
+    }
+    return ,$buffer
+}
+
+# RCON packets are little endian: length, request id, type, body, two nulls
+function Invoke-Rcon([string]$Command) {
+    $client = [System.Net.Sockets.TcpClient]::new("127.0.0.1", $RconPort)
+    try {
+        $stream = $client.GetStream()
+        $responses = @()
+        foreach ($packet in @(@(1, 3, $RconPassword), @(2, 2, $Command))) {
+            $body = [System.Text.Encoding]::UTF8.GetBytes($packet[2])
+            $out = [System.IO.MemoryStream]::new()
+            $out.Write([BitConverter]::GetBytes([int]($body.Length + 10)), 0, 4)
+            $out.Write([BitConverter]::GetBytes([int]$packet[0]), 0, 4)
+            $out.Write([BitConverter]::GetBytes([int]$packet[1]), 0, 4)
+            $out.Write($body, 0, $body.Length)
+            $out.Write([byte[]]@(0, 0), 0, 2)
+            $stream.Write($out.ToArray(), 0, [int]$out.Length)
+            $length = [BitConverter]::ToInt32((Read-Exact $stream 4), 0)
+            $response = Read-Exact $stream $length
+            if ([BitConverter]::ToInt32($response, 0) -eq -1) { throw "RCON login failed" }
+            $responses += [System.Text.Encoding]::UTF8.GetString($response, 8, $length - 10)
+        }
+        return $responses[1]
+    } finally {
+        $client.Dispose()
+    }
+}
+
+# Starts the server, waits until it is done loading and returns the process with the time that took
+function Start-TestServer([string]$ServerDir, [string]$Pass) {
+    $serverLog = Join-Path $testOutputDir "${MinecraftVersion}-${timestamp}-server-$Pass.log"
+    $watch = [System.Diagnostics.Stopwatch]::StartNew()
+    $process = Start-Process -FilePath "java" -ArgumentList "-Xms2G", "-Xmx4G", "-jar", "fabric-server-launch.jar", "nogui" `
+        -WorkingDirectory $ServerDir -RedirectStandardOutput $serverLog -RedirectStandardError "$serverLog.err" -NoNewWindow -PassThru
+    $deadline = (Get-Date).AddSeconds($TimeoutSeconds)
+    while ((Get-Date) -lt $deadline -and -not $process.HasExited) {
+        Start-Sleep -Milliseconds 500
+        $content = Get-Content -Path $serverLog -Raw -ErrorAction SilentlyContinue
+        if ($content -match "Done \(") {
+            $watch.Stop()
+            return [pscustomobject]@{ Process = $process; Log = $serverLog; StartMillis = $watch.ElapsedMilliseconds }
+        }
+    }
+    if (-not $process.HasExited) { $process.Kill() }
+    throw "Server did not start ($Pass)"
+}
+
+# Saves through the server and stops it, returning how long the save took
+function Stop-TestServer($Server) {
+    $watch = [System.Diagnostics.Stopwatch]::StartNew()
+    Invoke-Rcon "save-all flush" | Out-Null
+    $watch.Stop()
+    try {
+        Invoke-Rcon "stop" | Out-Null
+    } catch {
+        # The server may close the connection before it answers
+    }
+    if (-not $Server.Process.WaitForExit($TimeoutSeconds * 1000)) {
+        $Server.Process.Kill()
+        throw "Server did not stop"
+    }
+    return $watch.ElapsedMilliseconds
+}
+
+function Test-ServerLog($Server) {
+    $content = Get-Content -Path $Server.Log -Raw -ErrorAction SilentlyContinue
+    if ($content -match "Portal block mask|Failed to (load|save|read)|Exception.*(portal|Portal)|CustomPortals.*error") {
+        Write-TestLog "ERROR DETECTED in $($Server.Log)"
+        $content -split "`n" | Select-String -Pattern "Portal block mask|Failed to|Exception|error" | Select-Object -First 20 | ForEach-Object { Write-TestLog "  $_" }
+        return $false
+    }
+    return $true
+}
+
+Set-Location $projectRoot
+
+Write-TestLog "TEST: $TestName - Minecraft $MinecraftVersion"
+
+# Step 1-2: Build mod and set up the server with build.ps1, then take it over with RCON enabled
+Write-TestLog "Building mod and setting up server..."
+$serverDir = Join-Path $projectRoot "test-server"
+if (Test-Path $serverDir) {
+    Remove-Item -Path $serverDir -Recurse -Force -ErrorAction SilentlyContinue
+}
+.\build.ps1 -StartServer -NoVersionBump -MinecraftVersion $MinecraftVersion 2>&1 | Add-Content -Path $logFile
+if ($LASTEXITCODE -ne 0) {
+    Write-TestLog "BUILD FAILED"
+    exit 1
+}
+Get-Process -Name "java" -ErrorAction SilentlyContinue | Stop-Process -Force -ErrorAction SilentlyContinue
+$propertiesFile = Join-Path $serverDir "server.properties"
+if (-not (Test-Path $propertiesFile)) {
+    Write-TestLog "SERVER SETUP FAILED"
+    exit 1
+}
+$properties = (Get-Content $propertiesFile) -notmatch "^(enable-rcon|rcon\.port|rcon\.password)="
+$properties + @("enable-rcon=true", "rcon.port=$RconPort", "rcon.password=$RconPassword") | Set-Content $propertiesFile
+
+$testPassed = $true
+$results = [ordered]@{}
+try {
+    # Step 3: Let the server write its portal data once, so there is a file to put the old layout into
+    $server = Start-TestServer $serverDir "setup"
+    Stop-TestServer $server | Out-Null
+    $worldDir = Join-Path $serverDir "world"
+    $data = Find-PortalDataFile $worldDir
+    if (-not $data) {
+        throw "No saved portal list found under $worldDir"
+    }
+    Write-TestLog "Portal data file: $($data.Path)"
+
+    # Step 4: Replace the list with portals saved the old way, one position per block
+    Write-TestLog "Writing $PortalCount portals of ${PortalSize}x${PortalSize} in the list layout..."
+    $expected = @{}
+    $data.List.Value.ElementType = 10
+    $data.List.Value.Items.Clear()
+    for ($i = 0; $i -lt $PortalCount; $i++) {
+        $portal = New-LegacyPortal $i
+        $blocks = Get-PortalBlocks $portal
+        $expected[$blocks[0]] = $blocks
+        $data.List.Value.Items.Add($portal)
+    }
+    Write-NbtFile $data.Path $data.Root
+    $results["ListBytes"] = Get-NbtSize $data.List
+    $results["ListFileBytes"] = (Get-Item $data.Path).Length
+
+    # Step 5: Load the list layout and save it again, which has to write the bitmask
+    Write-TestLog "Loading the list layout..."
+    $server = Start-TestServer $serverDir "legacy"
+    $results["ListLoadMillis"] = $server.StartMillis
+    $results["BitmaskFirstSaveMillis"] = Stop-TestServer $server
+    if (-not (Test-ServerLog $server)) { $testPassed = $false }
+    $data = Find-PortalDataFile $worldDir
+    if (-not $data -or -not (Test-SavedPortals $data.List $expected)) {
+        Write-TestLog "Portals not saved correctly after loading the list layout"
+        $testPassed = $false
+    }
+    $results["BitmaskBytes"] = if ($data) { Get-NbtSize $data.List } else { 0 }
+    $results["BitmaskFileBytes"] = (Get-Item $data.Path).Length
+
+    # Step 6: Load the bitmask and save once more, which must give back the same portals
+    Write-TestLog "Reloading the bitmask layout..."
+    $server = Start-TestServer $serverDir "reload"
+    $results["BitmaskLoadMillis"] = $server.StartMillis
+    $results["BitmaskSaveMillis"] = Stop-TestServer $server
+    if (-not (Test-ServerLog $server)) { $testPassed = $false }
+    $data = Find-PortalDataFile $worldDir
+    if (-not $data -or -not (Test-SavedPortals $data.List $expected)) {
+        Write-TestLog "Portals not saved correctly after reloading the bitmask layout"
+        $testPassed = $false
+    }
+} catch {
+    Write-TestLog "ERROR: $_"
+    $testPassed = $false
+} finally {
+    Get-Process -Name "java" -ErrorAction SilentlyContinue | Stop-Process -Force -ErrorAction SilentlyContinue
+}
+
+# Measurements: uncompressed size of the portal list, size of the gzipped data file, server start and save times
+foreach ($entry in $results.GetEnumerator()) {
+    Write-TestLog "Measured $($entry.Key)=$($entry.Value)"
+}
+if ($results.Contains("BitmaskBytes") -and $results["BitmaskBytes"] -ge $results["ListBytes"]) {
+    Write-TestLog "Bitmask layout is not smaller than the list layout"
+    $testPassed = $false
+}
+
+# Copy server artifacts to test output
+if (Test-Path $serverDir) {
+    $serverArtifactsDir = Join-Path $testOutputDir "server"
+    Copy-Item -Path "$serverDir\*" -Destination $serverArtifactsDir -Recurse -Force -ErrorAction SilentlyContinue
+    Write-TestLog "Server artifacts copied to test-output"
+}
+
+Write-TestLog "Test Result: $(if ($testPassed) { 'PASSED' } else { 'FAILED' })"
+
+exit $(if ($testPassed) { 0 } else { 1 })